@@ -0,0 +1,125 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Medians of many arrays, or of many offset/length slices of one array, at
+// once. The batch is split into one task per thread, and each worker
+// thread copies into its own scratch buffer, kept in a ThreadLocal and
+// grown only when a longer input shows up. Once the buffers have grown,
+// a batch allocates nothing per array, unlike medianSort or quickSelect,
+// which start with Arrays.copyOf.
+class BatchMedian {
+    private final ExecutorService pool;
+    private final int threads;
+    private final PivotStrategy strategy;
+    private final ThreadLocal<int[]> scratch = ThreadLocal.withInitial(() -> new int[0]);
+
+    // The strategy's begin() is called for every array, so it should not
+    // allocate either; FIRST, MEDIAN_OF_3, NINTHER and RANDOM do not.
+    public BatchMedian(ExecutorService pool, int threads, PivotStrategy strategy) {
+        this.pool = pool;
+        this.threads = threads;
+        this.strategy = strategy;
+    }
+
+    public int[] medians(int[][] arrays) {
+        int[] out = new int[arrays.length];
+        medians(arrays, out);
+        return out;
+    }
+
+    public void medians(final int[][] arrays, final int[] out) {
+        run(arrays.length, (i, w) -> {
+            final int[] a = arrays[i];
+            System.arraycopy(a, 0, w, 0, a.length);
+            out[i] = select(w, a.length);
+        }, maxLength(arrays));
+    }
+
+    // out[i] is the median of data[offsets[i]..offsets[i]+lengths[i])
+    public void medians(final int[] data, final int[] offsets, final int[] lengths, final int[] out) {
+        int max = 0;
+        for (int len : lengths) max = Math.max(max, len);
+        run(offsets.length, (i, w) -> {
+            System.arraycopy(data, offsets[i], w, 0, lengths[i]);
+            out[i] = select(w, lengths[i]);
+        }, max);
+    }
+
+    private interface Job { void run(int i, int[] scratch); }
+
+    private void run(final int count, final Job job, final int maxLength) {
+        final int step = count/threads;
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int t=0; t<threads; t++) {
+            final int from = t*step, to = t==threads-1 ? count : from+step;
+            tasks.add(() -> {
+                int[] w = scratch.get();
+                if (w.length < maxLength) {
+                    w = new int[maxLength];
+                    scratch.set(w);
+                }
+                for (int i=from; i<to; i++) job.run(i, w);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Threads interrupted");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // Iterative quickSelect of rank n/2 in w[0..n)
+    private int select(int[] w, int n) {
+        final PivotStrategy s = strategy.begin(n);
+        final int target = n/2;
+        int min = 0, max = n;
+        do {
+            final long r = TestQuickSelect.partition(w, min, max, s.pivot(w, min, max, target));
+            if (TestQuickSelect.gt(r) <= target) min = TestQuickSelect.gt(r);
+            else if (TestQuickSelect.lt(r) > target) max = TestQuickSelect.lt(r);
+            else return w[target];
+        } while (true);
+    }
+
+    private static int maxLength(int[][] arrays) {
+        int max = 0;
+        for (int[] a : arrays) max = Math.max(max, a.length);
+        return max;
+    }
+
+    // Times medians of consecutive slices of a, each sliceLength long, one
+    // quickSelect per slice against one batch call, printing ns/element as
+    // Mark9 does and arrays/sec. Returns a checksum of the medians.
+    public static double benchmark(int[] a, int sliceLength, int threads) {
+        final int count = a.length/sliceLength;
+        final int[] offsets = new int[count], lengths = new int[count], out = new int[count];
+        for (int i=0; i<count; i++) {
+            offsets[i] = i*sliceLength;
+            lengths[i] = sliceLength;
+        }
+        final BatchMedian batch = new BatchMedian(TestQuickSelect.executor, threads, PivotStrategy.NINTHER);
+        double dummy = 0.0;
+        for (int mode=0; mode<2; mode++) {
+            int runs = 0;
+            Timer t = new Timer();
+            do {
+                if (mode == 0) {
+                    for (int i=0; i<count; i++)
+                        out[i] = TestQuickSelect.quickSelect(
+                            Arrays.copyOfRange(a, offsets[i], offsets[i]+lengths[i]), PivotStrategy.NINTHER);
+                } else batch.medians(a, offsets, lengths, out);
+                dummy += out[runs % count];
+                runs++;
+            } while (t.check() < 0.25);
+            final double time = t.check();
+            System.out.printf("%-25s %15.1f ns %12.0f arrays/s%n",
+                    (mode == 0 ? "qsel per " : "batch of ") + sliceLength,
+                    time*1e9/runs/(count*(double)sliceLength), runs*(double)count/time);
+        }
+        return dummy;
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.*;
+import java.util.function.*;
+import java.util.concurrent.*;
+
+// Quick count select on a caller-supplied ForkJoinPool. Every round splits
+// the input into 4 leaves per worker of the pool; counting and compacting
+// are RecursiveTasks that halve the leaf range until a single leaf is left,
+// so the work spreads over however many workers the pool has. Like
+// quickCountItCompact, leaves count into their own slot and compact to
+// offsets given by a prefix sum, ping-ponging between two buffers. The
+// pivot is picked by a PivotStrategy, by default the first element.
+
+// Below the serial cutoff a round is not worth forking for, and the rest
+// is left to quickCountIt. The cutoff is calibrated once, when the select
+// is created, by timing a counting pass on the pool against a serial one.
+class ForkJoinSelect {
+    private static final int MIN_LEAF = 2_048, MAX_CUTOFF = 1 << 20;
+    private final ForkJoinPool pool;
+    private final int leaves, cutoff;
+    private volatile int sink; // keeps calibration results alive
+
+    public ForkJoinSelect(ForkJoinPool pool) {
+        this.pool = pool;
+        this.leaves = 4*pool.getParallelism();
+        this.cutoff = calibrate();
+    }
+
+    // Skips calibration, for when the cutoff for this machine is known
+    public ForkJoinSelect(ForkJoinPool pool, int cutoff) {
+        this.pool = pool;
+        this.leaves = 4*pool.getParallelism();
+        this.cutoff = cutoff;
+    }
+
+    public int cutoff() { return cutoff; }
+
+    public int median(int[] in) { return select(in, in.length/2); }
+
+    public int median(int[] in, PivotStrategy s) { return select(in, in.length/2, s); }
+
+    public int select(int[] in, int target) { return select(in, target, PivotStrategy.FIRST); }
+
+    public int select(int[] in, int target, PivotStrategy s) {
+        final int[][] bufs = new int[2][];
+        int[] src = in;
+        int n = in.length, round = 0;
+        s = s.begin(n);
+        do {
+            if (n <= cutoff) return TestQuickSelect.quickCountIt(Arrays.copyOf(src, n), target, s);
+            final int k = s.pivot(src, 0, n, target), p = src[k];
+            final int leafCount = Math.max(1, Math.min(leaves, n/MIN_LEAF));
+            final int[] counts = new int[leafCount], equals = new int[leafCount];
+            final int[] offsets = new int[leafCount];
+            final int count = pool.invoke(new CountTask(src, n, p, counts, equals, 0, leafCount));
+            int equal = 0;
+            for (int e : equals) equal += e;
+            if (count <= target && target < count+equal) return p;
+
+            final boolean less = count > target;
+            int size = 0;
+            for (int i=0; i<leafCount; i++) {
+                offsets[i] = size;
+                final int from = from(i, n, leafCount), to = from(i+1, n, leafCount);
+                size += less ? counts[i] : (to-from)-counts[i]-equals[i];
+            }
+            final int b = round++ & 1;
+            if (bufs[b] == null) bufs[b] = new int[size];
+            pool.invoke(new CompactTask(src, n, p, less, bufs[b], offsets, 0, leafCount));
+
+            if (!less) target = target-count-equal;
+            src = bufs[b];
+            n = size;
+        } while (true);
+    }
+
+    // First index of leaf i out of leafCount over [0,n)
+    static int from(int i, int n, int leafCount) {
+        return (int)((long)i*n/leafCount);
+    }
+
+    // Counts the elements < p of each leaf into counts and those == p into
+    // equals, returning the total < p. Tasks are never serialized.
+    @SuppressWarnings("serial")
+    static class CountTask extends RecursiveTask<Integer> {
+        private final int[] inp;
+        private final int n, p, lo, hi;
+        private final int[] counts, equals;
+
+        CountTask(int[] inp, int n, int p, int[] counts, int[] equals, int lo, int hi) {
+            this.inp = inp; this.n = n; this.p = p;
+            this.counts = counts; this.equals = equals; this.lo = lo; this.hi = hi;
+        }
+
+        protected Integer compute() {
+            if (hi-lo == 1) {
+                final int to = from(hi, n, counts.length);
+                int count = 0, equal = 0;
+                for (int j=from(lo, n, counts.length); j<to; j++)
+                    if (inp[j] < p) count++; else if (inp[j] == p) equal++;
+                counts[lo] = count;
+                equals[lo] = equal;
+                return count;
+            }
+            final int mid = (lo+hi) >>> 1;
+            CountTask left = new CountTask(inp, n, p, counts, equals, lo, mid);
+            left.fork();
+            int right = new CountTask(inp, n, p, counts, equals, mid, hi).compute();
+            return right + left.join();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class CompactTask extends RecursiveAction {
+        private final int[] inp, out, offsets;
+        private final int n, p, lo, hi;
+        private final boolean less;
+
+        // Copies the elements < p if less, else those > p
+        CompactTask(int[] inp, int n, int p, boolean less, int[] out, int[] offsets, int lo, int hi) {
+            this.inp = inp; this.n = n; this.p = p; this.less = less;
+            this.out = out; this.offsets = offsets; this.lo = lo; this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi-lo == 1) {
+                final int to = from(hi, n, offsets.length);
+                int o = offsets[lo];
+                if (less) {
+                    for (int j=from(lo, n, offsets.length); j<to; j++) if (inp[j] < p) out[o++] = inp[j];
+                } else {
+                    for (int j=from(lo, n, offsets.length); j<to; j++) if (inp[j] > p) out[o++] = inp[j];
+                }
+                return;
+            }
+            final int mid = (lo+hi) >>> 1;
+            invokeAll(new CompactTask(inp, n, p, less, out, offsets, lo, mid),
+                      new CompactTask(inp, n, p, less, out, offsets, mid, hi));
+        }
+    }
+
+    // The smallest power of two size for which counting on the pool beats
+    // counting serially, or MAX_CUTOFF if the pool never wins below it.
+    private int calibrate() {
+        final Random rnd = new Random(23434);
+        final int[] a = new int[MAX_CUTOFF];
+        for (int i=0; i<a.length; i++) a[i] = rnd.nextInt();
+        final int p = a[0];
+        for (int n = 1 << 10; n < MAX_CUTOFF; n *= 2) {
+            final int len = n, leafCount = Math.max(1, Math.min(leaves, n/MIN_LEAF));
+            final int[] counts = new int[leafCount], equals = new int[leafCount];
+            long serial = bestTime(() -> {
+                int count = 0;
+                for (int j=1; j<len; j++) if (a[j] < p) count++;
+                return count;
+            });
+            long parallel = bestTime(() -> pool.invoke(new CountTask(a, len, p, counts, equals, 0, leafCount)));
+            if (parallel < serial) return n;
+        }
+        return MAX_CUTOFF;
+    }
+
+    // Best of a few timed runs, after warming up
+    private long bestTime(IntSupplier f) {
+        long best = Long.MAX_VALUE;
+        for (int i=0; i<20; i++) sink += f.getAsInt();
+        for (int i=0; i<7; i++) {
+            long start = System.nanoTime();
+            sink += f.getAsInt();
+            best = Math.min(best, System.nanoTime()-start);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.*;
+import java.util.stream.*;
+
+// Mutable result container for IntStream.collect that partitions ints into
+// those < p and those > p, counting and compacting them into growable
+// int[] buffers, and only counts those == p. Parallel streams fill one per
+// split and combine them.
+class IntPartition {
+    final int p;
+    int[] less = new int[16], greater = new int[16];
+    int lessCount = 0, equalCount = 0, greaterCount = 0;
+
+    public IntPartition(int p) { this.p = p; }
+
+    public static IntPartition collect(IntStream s, final int p) {
+        return s.collect(() -> new IntPartition(p), IntPartition::accept, IntPartition::combine);
+    }
+
+    public void accept(int x) {
+        if (x < p) {
+            if (lessCount == less.length) less = Arrays.copyOf(less, 2*lessCount);
+            less[lessCount++] = x;
+        } else if (x > p) {
+            if (greaterCount == greater.length) greater = Arrays.copyOf(greater, 2*greaterCount);
+            greater[greaterCount++] = x;
+        } else {
+            equalCount++;
+        }
+    }
+
+    public void combine(IntPartition other) {
+        less = append(less, lessCount, other.less, other.lessCount);
+        lessCount += other.lessCount;
+        equalCount += other.equalCount;
+        greater = append(greater, greaterCount, other.greater, other.greaterCount);
+        greaterCount += other.greaterCount;
+    }
+
+    private static int[] append(int[] a, int n, int[] b, int m) {
+        if (n+m > a.length) a = Arrays.copyOf(a, Math.max(n+m, 2*n));
+        System.arraycopy(b, 0, a, n, m);
+        return a;
+    }
+}
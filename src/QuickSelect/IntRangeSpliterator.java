@@ -0,0 +1,47 @@
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+// Spliterator over a[from..to) handing out plain ints, so streams over an
+// int[] range never box. Splits in halves down to MIN_SPLIT elements.
+class IntRangeSpliterator implements Spliterator.OfInt {
+    private static final int MIN_SPLIT = 1_024;
+    private final int[] a;
+    private int from;
+    private final int to;
+
+    public IntRangeSpliterator(int[] a, int from, int to) {
+        this.a = a; this.from = from; this.to = to;
+    }
+
+    public static IntStream stream(int[] a, int from, int to, boolean parallel) {
+        return StreamSupport.intStream(new IntRangeSpliterator(a, from, to), parallel);
+    }
+
+    public OfInt trySplit() {
+        if (to-from < 2*MIN_SPLIT) return null;
+        final int mid = (from+to) >>> 1;
+        IntRangeSpliterator prefix = new IntRangeSpliterator(a, from, mid);
+        from = mid;
+        return prefix;
+    }
+
+    public boolean tryAdvance(IntConsumer action) {
+        if (from >= to) return false;
+        action.accept(a[from++]);
+        return true;
+    }
+
+    public void forEachRemaining(IntConsumer action) {
+        final int[] a = this.a;
+        final int to = this.to;
+        for (int i=from; i<to; i++) action.accept(a[i]);
+        from = to;
+    }
+
+    public long estimateSize() { return to-from; }
+
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+    }
+}
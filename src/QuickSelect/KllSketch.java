@@ -0,0 +1,185 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Streaming quantile sketch after Karnin, Lang and Liberty (KLL). Items
+// enter level 0; once the sketch is full, the lowest level over capacity is
+// sorted and every other item (random offset) is promoted to the next level,
+// where each item stands for twice as many inputs. Level capacities shrink
+// geometrically by a factor 2/3 going down from the top, so the space used
+// is O(k) plus a term logarithmic in the number of items seen.
+
+// Not thread-safe; use one sketch per thread and merge, see Striped below.
+class KllSketch {
+    private static final double C = 2.0/3.0;
+    private final int k;
+    private int[][] levels = new int[0][];
+    private int[] sizes = new int[0];
+    private int size = 0, maxSize = 0;
+    private long n = 0;
+
+    public KllSketch(int k) {
+        if (k < 8) throw new IllegalArgumentException("k must be at least 8");
+        this.k = k;
+        grow();
+    }
+
+    public long count() { return n; }
+
+    // Number of items held, which is what the sketch costs in memory
+    public int retained() { return size; }
+
+    // Expected normalized rank error of quantile(q) at 99% confidence, using
+    // the empirical fit published for KLL sketches.
+    public double rankError() { return 2.296/Math.pow(k, 0.9723); }
+
+    public void update(int x) {
+        append(0, x);
+        n++;
+        if (size >= maxSize) compress();
+    }
+
+    // Adds all items of other to this sketch; other is left unchanged.
+    public void merge(KllSketch other) {
+        while (levels.length < other.levels.length) grow();
+        for (int h=0; h<other.levels.length; h++)
+            for (int i=0; i<other.sizes[h]; i++)
+                append(h, other.levels[h][i]);
+        n += other.n;
+        while (size >= maxSize) compress();
+    }
+
+    // The item whose rank is approximately q*count(), with the same
+    // convention as the median methods in TestQuickSelect (0.5 ~ n/2).
+    public int quantile(double q) {
+        if (n == 0) throw new NoSuchElementException("empty sketch");
+        long[] packed = new long[size];
+        int m = 0;
+        for (int h=0; h<levels.length; h++)
+            for (int i=0; i<sizes[h]; i++)
+                // Value above the level, so longs sort by value
+                packed[m++] = ((long)levels[h][i] << 8) | h;
+        Arrays.sort(packed);
+        long total = 0;
+        for (long e : packed) total += 1L << (e & 0xff);
+        double target = q*total;
+        long cum = 0;
+        for (long e : packed) {
+            cum += 1L << (e & 0xff);
+            if (cum > target) return (int)(e >> 8);
+        }
+        return (int)(packed[m-1] >> 8);
+    }
+
+    private int capacity(int h) {
+        int depth = levels.length - h - 1;
+        return (int)Math.ceil(Math.pow(C, depth)*k) + 1;
+    }
+
+    private void grow() {
+        levels = Arrays.copyOf(levels, levels.length+1);
+        sizes = Arrays.copyOf(sizes, sizes.length+1);
+        levels[levels.length-1] = new int[8];
+        maxSize = 0;
+        for (int h=0; h<levels.length; h++) maxSize += capacity(h);
+    }
+
+    private void append(int h, int x) {
+        if (sizes[h] == levels[h].length)
+            levels[h] = Arrays.copyOf(levels[h], 2*levels[h].length);
+        levels[h][sizes[h]++] = x;
+        size++;
+    }
+
+    // Compacts the lowest level that is over capacity. Compacting lazily,
+    // one level at a time, keeps as many items at full resolution as fits.
+    private void compress() {
+        for (int h=0; h<levels.length; h++) {
+            if (sizes[h] < capacity(h)) continue;
+            if (h+1 >= levels.length) grow();
+            int[] w = levels[h];
+            int len = sizes[h];
+            Arrays.sort(w, 0, len);
+            // An odd item out stays behind at this level
+            int keep = len%2, last = w[len-1];
+            int offset = ThreadLocalRandom.current().nextBoolean() ? 1 : 0;
+            for (int i=offset; i<len-keep; i+=2) append(h+1, w[i]);
+            size -= len;
+            sizes[h] = 0;
+            if (keep == 1) append(h, last);
+            return;
+        }
+    }
+
+    // Sketch shared between threads. Each thread updates its own sketch,
+    // so updates only take an uncontended lock; snapshot() merges them.
+    static class Striped {
+        private final int k;
+        private final Queue<KllSketch> all = new ConcurrentLinkedQueue<>();
+        private final ThreadLocal<KllSketch> local;
+
+        public Striped(int k) {
+            this.k = k;
+            this.local = ThreadLocal.withInitial(() -> {
+                KllSketch s = new KllSketch(k);
+                all.add(s);
+                return s;
+            });
+        }
+
+        public void update(int x) {
+            KllSketch s = local.get();
+            synchronized (s) { s.update(x); }
+        }
+
+        public KllSketch snapshot() {
+            KllSketch res = new KllSketch(k);
+            for (KllSketch s : all)
+                synchronized (s) { res.merge(s); }
+            return res;
+        }
+    }
+
+    // Validation mode: fills a striped sketch from threadCount threads and
+    // compares its median with medianPSort on the same data, reporting the
+    // observed rank error next to the memory used by each. Runs once on a
+    // and once on a shifted to be centred on zero, so that ordering across
+    // zero is checked too; half the range fits an int, so the shift cannot
+    // overflow.
+    public static void validate(int[] a, int k, int threadCount) throws Exception {
+        validate("", a, k, threadCount);
+        long min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int x : a) { min = Math.min(min, x); max = Math.max(max, x); }
+        final long mid = (min+max)/2;
+        final int[] signed = new int[a.length];
+        for (int i=0; i<a.length; i++) signed[i] = (int)(a[i]-mid);
+        validate(" signed", signed, k, threadCount);
+    }
+
+    private static void validate(String label, int[] a, int k, int threadCount) throws Exception {
+        final Striped striped = new Striped(k);
+        final int step = a.length/threadCount;
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        ArrayList<Callable<Void>> feeders = new ArrayList<>();
+        for (int i=0; i<threadCount; i++) {
+            final int from = i*step;
+            final int to = i==threadCount-1 ? a.length : from+step;
+            feeders.add(() -> {
+                for (int j=from; j<to; j++) striped.update(a[j]);
+                return null;
+            });
+        }
+        pool.invokeAll(feeders);
+        pool.shutdown();
+        KllSketch s = striped.snapshot();
+        final int exact = TestQuickSelect.medianPSort(a), approx = s.quantile(0.5);
+        // Rank error: how far the estimate's rank range is from n/2
+        long below = 0, equal = 0;
+        for (int x : a) if (x < approx) below++; else if (x == approx) equal++;
+        long target = a.length/2;
+        long off = target < below ? below-target : target >= below+equal ? target-below-equal+1 : 0;
+        System.out.printf("# kll%s k=%d: median %d, exact %d, rank error %.5f (bound %.5f)%n",
+                label, k, approx, exact, (double)off/a.length, s.rankError());
+        System.out.printf("# kll%s k=%d: %d items retained (%d bytes) vs %d bytes for medianPSort%n",
+                label, k, s.retained(), 4L*s.retained(), 4L*a.length);
+    }
+}
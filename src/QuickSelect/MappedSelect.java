@@ -0,0 +1,182 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Select over a file of 32-bit ints too large for the heap. The file is
+// memory mapped SEGMENT bytes at a time, and thread t of the pool handles
+// segments t, t+threads, t+2*threads, ... in every pass, so each thread
+// sees the same elements each time.
+
+// The first pass builds per-thread histograms of the top 16 bits (of the
+// value with its sign flipped, so buckets are in value order) and finds the
+// bucket holding the target rank. If that bucket has at most maxCandidates
+// elements, a second pass copies them into an int[] and quickSelect
+// finishes in memory. Otherwise a second histogram pass over the low 16
+// bits within the bucket pins down the value exactly. Heap use is thus
+// bounded by threads histograms plus maxCandidates ints, whatever the file
+// size.
+class MappedSelect {
+    private static final long SEGMENT = 1L << 26; // bytes mapped at a time
+    private static final int BUCKETS = 1 << 16;
+    private final int threads, maxCandidates;
+    private final ByteOrder order;
+
+    public MappedSelect(int threads, int maxCandidates, ByteOrder order) {
+        this.threads = threads;
+        this.maxCandidates = maxCandidates;
+        this.order = order;
+    }
+
+    public int median(Path file) throws IOException {
+        return select(file, (Files.size(file)/4)/2);
+    }
+
+    public int select(Path file, long target) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long n = ch.size()/4;
+            if (target < 0 || target >= n)
+                throw new IllegalArgumentException("target " + target + " outside file of " + n + " ints");
+            // Pass 1: top 16 bits
+            long[][] hist = histogram(pool, ch, n, -1);
+            long[] total = sum(hist);
+            int hi = 0;
+            while (target >= total[hi]) target -= total[hi++];
+            if (total[hi] <= maxCandidates) {
+                // Pass 2: copy the bucket into memory and finish there
+                int[] w = gather(pool, ch, n, hi, hist);
+                PivotStrategy s = PivotStrategy.introselect(PivotStrategy.NINTHER).begin(w.length);
+                return TestQuickSelect.quickSelect(w, 0, w.length, (int)target, s);
+            }
+            // Pass 2: low 16 bits within the bucket
+            total = sum(histogram(pool, ch, n, hi));
+            int lo = 0;
+            while (target >= total[lo]) target -= total[lo++];
+            return ((hi << 16) | lo) ^ Integer.MIN_VALUE;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Per-thread histograms; of the top 16 bits if hi < 0, else of the low
+    // 16 bits of the elements whose top 16 bits equal hi.
+    private long[][] histogram(ExecutorService pool, final FileChannel ch, final long n, final int hi) throws IOException {
+        final long[][] hist = new long[threads][];
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int t=0; t<threads; t++) {
+            final int nr = t;
+            tasks.add(() -> {
+                final long[] h = new long[BUCKETS];
+                for (long seg = nr; seg*SEGMENT < 4*n; seg += threads) {
+                    final IntBuffer ib = map(ch, n, seg);
+                    final int len = ib.remaining();
+                    if (hi < 0) {
+                        for (int i=0; i<len; i++) h[(ib.get(i) ^ Integer.MIN_VALUE) >>> 16]++;
+                    } else {
+                        for (int i=0; i<len; i++) {
+                            final int key = ib.get(i) ^ Integer.MIN_VALUE;
+                            if (key >>> 16 == hi) h[key & 0xffff]++;
+                        }
+                    }
+                }
+                hist[nr] = h;
+                return null;
+            });
+        }
+        invokeAll(pool, tasks);
+        return hist;
+    }
+
+    // Copies the elements in bucket hi into one array, thread t writing at
+    // the offset given by the counts of bucket hi of the threads before it.
+    private int[] gather(ExecutorService pool, final FileChannel ch, final long n, final int hi,
+            long[][] hist) throws IOException {
+        int size = 0;
+        final int[] offsets = new int[threads];
+        for (int t=0; t<threads; t++) {
+            offsets[t] = size;
+            size += (int)hist[t][hi];
+        }
+        final int[] w = new int[size];
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int t=0; t<threads; t++) {
+            final int nr = t;
+            tasks.add(() -> {
+                int o = offsets[nr];
+                for (long seg = nr; seg*SEGMENT < 4*n; seg += threads) {
+                    final IntBuffer ib = map(ch, n, seg);
+                    final int len = ib.remaining();
+                    for (int i=0; i<len; i++) {
+                        final int x = ib.get(i);
+                        if ((x ^ Integer.MIN_VALUE) >>> 16 == hi) w[o++] = x;
+                    }
+                }
+                return null;
+            });
+        }
+        invokeAll(pool, tasks);
+        return w;
+    }
+
+    private IntBuffer map(FileChannel ch, long n, long seg) throws IOException {
+        final long from = seg*SEGMENT, len = Math.min(SEGMENT, 4*n-from);
+        return ch.map(FileChannel.MapMode.READ_ONLY, from, len).order(order).asIntBuffer();
+    }
+
+    private static long[] sum(long[][] hist) {
+        final long[] total = new long[BUCKETS];
+        for (long[] h : hist)
+            for (int b=0; b<BUCKETS; b++) total[b] += h[b];
+        return total;
+    }
+
+    private static void invokeAll(ExecutorService pool, List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("select interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // Usage: java MappedSelect <file> [<count>]
+    // Given a count, first writes that many random ints to the file, seeded
+    // as in TestQuickSelect, and checks the result against medianPSort.
+    public static void main(String[] args) throws IOException {
+        TestQuickSelect.SystemInfo();
+        final Path file = Paths.get(args[0]);
+        final ByteOrder order = ByteOrder.nativeOrder();
+        int[] a = null;
+        if (args.length > 1) {
+            a = new int[Integer.parseInt(args[1])];
+            Random rnd = new Random(23434);
+            for (int i=0; i<a.length; i++) a[i] = rnd.nextInt(4*a.length);
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.allocate(1 << 20).order(order);
+                for (int i=0; i<a.length; ) {
+                    buf.clear();
+                    while (i < a.length && buf.remaining() >= 4) buf.putInt(a[i++]);
+                    buf.flip();
+                    while (buf.hasRemaining()) ch.write(buf);
+                }
+            }
+        }
+        final int threads = Runtime.getRuntime().availableProcessors();
+        for (int maxCandidates : new int[] { 1 << 22, 0 }) {
+            MappedSelect select = new MappedSelect(threads, maxCandidates, order);
+            Timer t = new Timer();
+            final int median = select.median(file);
+            System.out.printf("%-25s %d in %.3f s (max %d candidates)%n",
+                    "mapped median", median, t.check(), maxCandidates);
+            if (a != null && median != TestQuickSelect.medianPSort(a))
+                System.out.println("Mapped median doesn't match medianPSort :(");
+        }
+    }
+}
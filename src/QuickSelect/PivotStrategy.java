@@ -0,0 +1,143 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Chooses the pivot for one round of a select over w[min..max), looking for
+// the element of rank target (an index into [min,max)). Returns the index of
+// the pivot and never modifies w, since the count based selects run their
+// first round directly on the caller's input.
+interface PivotStrategy {
+    int pivot(int[] w, int min, int max, int target);
+
+    // Called once by every select over n elements, before the first round.
+    // Strategies that keep per-select state return a fresh instance.
+    default PivotStrategy begin(int n) { return this; }
+
+    // The original choice, quadratic on sorted and nearly sorted input
+    PivotStrategy FIRST = (w, min, max, target) -> min;
+
+    PivotStrategy MEDIAN_OF_3 = (w, min, max, target) ->
+        median3(w, min, min+(max-min)/2, max-1);
+
+    // Tukey's ninther: the median of three medians of three, spread evenly
+    PivotStrategy NINTHER = (w, min, max, target) -> {
+        final int n = max-min;
+        if (n < 40) return median3(w, min, min+n/2, max-1);
+        final int s = n/8, mid = min+n/2;
+        return median3(w,
+                median3(w, min, min+s, min+2*s),
+                median3(w, mid-s, mid, mid+s),
+                median3(w, max-1-2*s, max-1-s, max-1));
+    };
+
+    PivotStrategy RANDOM = (w, min, max, target) ->
+        min + ThreadLocalRandom.current().nextInt(max-min);
+
+    // Floyd-Rivest: select from a random sample of about n^(2/3) elements
+    // the one at the same relative rank as target, so the partition splits
+    // close to target and the side holding it shrinks quickly.
+    PivotStrategy FLOYD_RIVEST = (w, min, max, target) -> {
+        final int n = max-min;
+        if (n < 600) return median3(w, min, min+n/2, max-1);
+        final int s = (int)Math.pow(n, 2.0/3.0);
+        final int[] sample = new int[s], index = new int[s];
+        final ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i=0; i<s; i++) {
+            index[i] = min + rnd.nextInt(n);
+            sample[i] = w[index[i]];
+        }
+        final int k = (int)((long)(target-min)*s/n);
+        final int v = momSelect(Arrays.copyOf(sample, s), 0, s, k);
+        for (int i=0; i<s; i++) if (sample[i] == v) return index[i];
+        throw new IllegalStateException("sampled pivot not found");
+    };
+
+    // Blum, Floyd, Pratt, Rivest and Tarjan's median of medians of groups
+    // of five. Slow, but always leaves at least 3/10 of w on either side.
+    PivotStrategy MEDIAN_OF_MEDIANS = (w, min, max, target) -> {
+        final int n = max-min;
+        if (n <= 5) return median3(w, min, min+n/2, max-1);
+        final int groups = (n+4)/5;
+        final int[] medians = new int[groups], index = new int[groups];
+        final int[] g = new int[5];
+        for (int i=0; i<groups; i++) {
+            final int from = min+5*i, len = Math.min(5, max-from);
+            for (int j=0; j<len; j++) g[j] = w[from+j];
+            sort(g, 0, len);
+            medians[i] = g[len/2];
+            for (int j=from; j<from+len; j++) if (w[j] == medians[i]) { index[i] = j; break; }
+        }
+        final int v = momSelect(Arrays.copyOf(medians, groups), 0, groups, groups/2);
+        for (int i=0; i<groups; i++) if (medians[i] == v) return index[i];
+        throw new IllegalStateException("median of medians not found");
+    };
+
+    // Introselect: pivots with fast until a select has taken more rounds
+    // than about twice the depth of a balanced one, then switches to
+    // MEDIAN_OF_MEDIANS, bounding the worst case to linear time. The bound
+    // relies on the selects setting all copies of the pivot aside at once,
+    // through a three-way partition or by counting them, as otherwise a
+    // round on an input of equal keys drops just one element.
+    static PivotStrategy introselect(PivotStrategy fast) {
+        return new Introselect(fast, 0);
+    }
+
+    class Introselect implements PivotStrategy {
+        private final PivotStrategy fast;
+        private int budget;
+
+        Introselect(PivotStrategy fast, int budget) {
+            this.fast = fast;
+            this.budget = budget;
+        }
+
+        public PivotStrategy begin(int n) {
+            return new Introselect(fast, 2*(32-Integer.numberOfLeadingZeros(n))+4);
+        }
+
+        public int pivot(int[] w, int min, int max, int target) {
+            return budget-- > 0 ? fast.pivot(w, min, max, target)
+                                : MEDIAN_OF_MEDIANS.pivot(w, min, max, target);
+        }
+    }
+
+    // Index of the median of w[a], w[b] and w[c]
+    static int median3(int[] w, int a, int b, int c) {
+        return w[a] < w[b]
+            ? (w[b] < w[c] ? b : w[a] < w[c] ? c : a)
+            : (w[b] > w[c] ? b : w[a] > w[c] ? c : a);
+    }
+
+    static void sort(int[] a, int min, int max) {
+        for (int i=min+1; i<max; i++)
+            for (int j=i; j>min && a[j-1] > a[j]; j--) {
+                int t=a[j]; a[j]=a[j-1]; a[j-1]=t;
+            }
+    }
+
+    // The value of rank k in a[min..max), reordering a. Partitions three
+    // ways around a median of medians, so it is linear even with duplicates.
+    static int momSelect(int[] a, int min, int max, int k) {
+        while (true) {
+            if (max-min <= 5) { sort(a, min, max); return a[k]; }
+            // Move the median of each group of five to the front
+            int m = min;
+            for (int i=min; i<max; i+=5) {
+                final int hi = Math.min(i+5, max);
+                sort(a, i, hi);
+                int t=a[m]; a[m]=a[i+(hi-i)/2]; a[i+(hi-i)/2]=t;
+                m++;
+            }
+            final int p = momSelect(a, min, m, min+(m-min)/2);
+            // a[min..lt) < p, a[lt..gt) == p, a[gt..max) > p
+            int lt = min, i = min, gt = max;
+            while (i < gt) {
+                if (a[i] < p) { int t=a[lt]; a[lt++]=a[i]; a[i++]=t; }
+                else if (a[i] > p) { int t=a[--gt]; a[gt]=a[i]; a[i]=t; }
+                else i++;
+            }
+            if (k < lt) max = lt;
+            else if (k >= gt) min = gt;
+            else return p;
+        }
+    }
+}
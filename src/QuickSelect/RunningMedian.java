@@ -0,0 +1,221 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+// Median of the last capacity samples, kept up to date on every add in
+// O(log capacity) with two indexed heaps: low, a max-heap holding the
+// size/2 smallest samples, and high, a min-heap holding the rest, so the
+// median, by the same convention as medianSort, is the top of high.
+
+// Samples live in a ring buffer; a heap entry packs a sample above its
+// ring slot, so entries order as samples do, and pos[] tracks where
+// each slot's entry sits, so evicting the oldest sample is a direct heap
+// removal rather than a lazy deletion. Not thread-safe, see Concurrent.
+class RunningMedian {
+    private final int capacity;
+    private final int[] ring;
+    private final int[] pos;         // index of slot's entry in its heap
+    private final boolean[] inLow;   // which heap slot's entry is in
+    private final Heap low, high;
+    private int head = 0, size = 0;
+
+    public RunningMedian(int capacity) {
+        this.capacity = capacity;
+        this.ring = new int[capacity];
+        this.pos = new int[capacity];
+        this.inLow = new boolean[capacity];
+        this.low = new Heap(true);
+        this.high = new Heap(false);
+    }
+
+    public int size() { return size; }
+
+    // Adds x, first evicting the oldest sample if the window is full
+    public void add(int x) {
+        if (size == capacity) evictOldest();
+        final int slot = (head+size) % capacity;
+        ring[slot] = x;
+        size++;
+        final long e = entry(x, slot);
+        if (low.size > 0 && e < low.top()) low.push(e); else high.push(e);
+        rebalance();
+    }
+
+    public int evictOldest() {
+        if (size == 0) throw new NoSuchElementException("empty window");
+        final int slot = head, x = ring[slot];
+        (inLow[slot] ? low : high).remove(pos[slot]);
+        head = (head+1) % capacity;
+        size--;
+        rebalance();
+        return x;
+    }
+
+    public int median() {
+        if (size == 0) throw new NoSuchElementException("empty window");
+        return value(high.top());
+    }
+
+    private void rebalance() {
+        while (low.size > size/2) high.push(low.pop());
+        while (low.size < size/2) low.push(high.pop());
+    }
+
+    private static long entry(int x, int slot) {
+        return ((long)x << 32) | slot;
+    }
+    private static int value(long e) { return (int)(e >> 32); }
+    private static int slot(long e) { return (int)e; }
+
+    // Binary heap of entries that keeps pos[] and inLow[] up to date. The
+    // max-heap stores ~e, which reverses the order, so both sift the same.
+    private class Heap {
+        private final boolean max;
+        private final long[] a = new long[capacity];
+        private int size = 0;
+
+        Heap(boolean max) { this.max = max; }
+
+        long top() { return max ? ~a[0] : a[0]; }
+
+        void push(long e) {
+            a[size] = max ? ~e : e;
+            siftUp(size++);
+        }
+
+        long pop() {
+            final long e = top();
+            remove(0);
+            return e;
+        }
+
+        void remove(int i) {
+            size--;
+            if (i == size) return;
+            final long moved = a[size];
+            a[i] = moved;
+            siftUp(i);
+            siftDown(pos[slot(max ? ~moved : moved)]);
+        }
+
+        private void siftUp(int i) {
+            final long e = a[i];
+            while (i > 0 && a[(i-1)/2] > e) {
+                a[i] = a[(i-1)/2];
+                place(i);
+                i = (i-1)/2;
+            }
+            a[i] = e;
+            place(i);
+        }
+
+        private void siftDown(int i) {
+            final long e = a[i];
+            while (2*i+1 < size) {
+                int c = 2*i+1;
+                if (c+1 < size && a[c+1] < a[c]) c++;
+                if (a[c] >= e) break;
+                a[i] = a[c];
+                place(i);
+                i = c;
+            }
+            a[i] = e;
+            place(i);
+        }
+
+        private void place(int i) {
+            final int s = slot(max ? ~a[i] : a[i]);
+            pos[s] = i;
+            inLow[s] = max;
+        }
+    }
+
+    // Running median fed by many producer threads. Producers enqueue their
+    // sample and then only try to take the lock to drain the queue into the
+    // window, so they never wait on each other. A sample missed by a drain
+    // in progress is drained by the next add or by median(), which always
+    // drains first. Samples enter the window in queue order.
+    static class Concurrent {
+        private final RunningMedian window;
+        private final Queue<Integer> pending = new ConcurrentLinkedQueue<>();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        public Concurrent(int capacity) {
+            this.window = new RunningMedian(capacity);
+        }
+
+        public void add(int x) {
+            pending.add(x);
+            while (!pending.isEmpty() && lock.tryLock()) {
+                try { drain(); } finally { lock.unlock(); }
+            }
+        }
+
+        public int median() {
+            lock.lock();
+            try {
+                drain();
+                return window.median();
+            } finally { lock.unlock(); }
+        }
+
+        // Assumes lock is held
+        private void drain() {
+            Integer x;
+            while ((x = pending.poll()) != null) window.add(x);
+        }
+    }
+
+    // Checks the running median against medianSort over every window, then
+    // the concurrent variant against medianSort of all samples, and times a
+    // stream against re-running quickSelect on a copy of each window.
+    public static void main(String[] args) throws Exception {
+        TestQuickSelect.SystemInfo();
+        final int n = 200_000, windowSize = 1_000;
+        final Random rnd = new Random(23434);
+        final int[] samples = new int[n];
+        for (int i=0; i<n; i++) samples[i] = rnd.nextInt(4*windowSize) - 2*windowSize;
+
+        boolean works = true;
+        RunningMedian rm = new RunningMedian(windowSize);
+        for (int i=0; i<n; i++) {
+            rm.add(samples[i]);
+            final int from = Math.max(0, i+1-windowSize);
+            works &= rm.median() == TestQuickSelect.medianSort(Arrays.copyOfRange(samples, from, i+1));
+        }
+        while (rm.size() > 1) {
+            rm.evictOldest();
+            works &= rm.median() == TestQuickSelect.medianSort(Arrays.copyOfRange(samples, n-rm.size(), n));
+        }
+        if (works) System.out.println("Running median works :)");
+        else System.out.println("Running median doesn't work :(");
+
+        final int threads = 8;
+        final Concurrent crm = new Concurrent(n);
+        final CyclicBarrier barrier = new CyclicBarrier(threads+1);
+        for (int t=0; t<threads; t++) {
+            final int nr = t;
+            new Thread(() -> {
+                try { barrier.await(); } catch (Exception exn) { }
+                for (int i=nr; i<n; i+=threads) crm.add(samples[i]);
+                try { barrier.await(); } catch (Exception exn) { }
+            }).start();
+        }
+        barrier.await();
+        barrier.await();
+        if (crm.median() == TestQuickSelect.medianSort(samples))
+            System.out.println("Concurrent running median works :)");
+        else System.out.println("Concurrent running median doesn't work :(");
+
+        Timer timer = new Timer();
+        RunningMedian bench = new RunningMedian(windowSize);
+        long sum = 0;
+        for (int x : samples) { bench.add(x); sum += bench.median(); }
+        System.out.printf("%-25s %15.1f ns/sample%n", "running median", timer.check()*1e9/n);
+        timer = new Timer();
+        for (int i=0; i<n; i++)
+            sum -= TestQuickSelect.quickSelect(Arrays.copyOfRange(samples, Math.max(0, i+1-windowSize), i+1));
+        System.out.printf("%-25s %15.1f ns/sample%n", "quickSelect per window", timer.check()*1e9/n);
+        System.out.println(sum);
+    }
+}
@@ -0,0 +1,57 @@
+// The inner loops of the count based selects: counting the elements less
+// than and equal to the pivot, and compacting one side of it into an output
+// array.
+// SCALAR is plain Java; best() returns VectorKernels, which uses the
+// incubating Vector API, when it was compiled from vector/ and the JVM was
+// started with
+//   --add-modules jdk.incubator.vector
+// and SCALAR otherwise, or when run with -Dselect.kernels=scalar. The
+// selects use best() unless given kernels explicitly.
+interface SelectKernels {
+    // Number of elements of a[from..to) that are < p
+    int countLess(int[] a, int from, int to, int p);
+
+    // Number of elements of a[from..to) that are == p
+    int countEqual(int[] a, int from, int to, int p);
+
+    // Copies the elements of a[from..to) that are < p if less, else those
+    // that are > p, to out starting at o. Returns the index in out after the
+    // last element copied.
+    int compact(int[] a, int from, int to, int p, boolean less, int[] out, int o);
+
+    SelectKernels SCALAR = new SelectKernels() {
+        public int countLess(int[] a, int from, int to, int p) {
+            int count = 0;
+            for (int i=from; i<to; i++) if (a[i] < p) count++;
+            return count;
+        }
+
+        public int countEqual(int[] a, int from, int to, int p) {
+            int count = 0;
+            for (int i=from; i<to; i++) if (a[i] == p) count++;
+            return count;
+        }
+
+        public int compact(int[] a, int from, int to, int p, boolean less, int[] out, int o) {
+            if (less) {
+                for (int i=from; i<to; i++) if (a[i] < p) out[o++] = a[i];
+            } else {
+                for (int i=from; i<to; i++) if (a[i] > p) out[o++] = a[i];
+            }
+            return o;
+        }
+
+        public String toString() { return "scalar"; }
+    };
+
+    static SelectKernels best() {
+        if ("scalar".equals(System.getProperty("select.kernels"))
+                || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            return SCALAR;
+        try {
+            return (SelectKernels)Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+}
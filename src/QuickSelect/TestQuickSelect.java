@@ -16,82 +16,172 @@ class TestQuickSelect {
         return w[w.length/2];
     }
 
-    public static int partition(int[] w, int min, int max) {
-        int p = min; // use w[p] as pivot
-        int left=min+1, right = max-1;
-        while(left <= right) {
-            while( w[left] <= w[p] && left < right ) left++;
-            while( w[right] > w[p] && left <= right ) right--;
-            if(left >= right) break;
-            int t=w[left]; w[left]=w[right]; w[right]=t;
+    // Three-way partitions w[min..max) around p = w[min], so that after it
+    // w[min..lt) < p, w[lt..gt) == p and w[gt..max) > p. Keys equal to the
+    // pivot end up in the middle instead of all on one side, so a select
+    // landing on any of them is done and inputs full of duplicates shrink
+    // as fast as distinct ones. Returns lt in the high and gt in the low
+    // half of a long; see lt() and gt().
+    public static long partition(int[] w, int min, int max) {
+        final int p = w[min];
+        int lt=min, i=min+1, gt=max;
+        while(i < gt) {
+            if(w[i] < p) { int t=w[lt]; w[lt++]=w[i]; w[i++]=t; }
+            else if(w[i] > p) { int t=w[--gt]; w[gt]=w[i]; w[i]=t; }
+            else i++;
         }
-        int t=w[p]; w[p]=w[right]; w[right]=t;
-        return right;
+        return (long)lt << 32 | gt;
     }
+    // Partitions around w[k] by first moving it to the front
+    public static long partition(int[] w, int min, int max, int k) {
+        int t=w[min]; w[min]=w[k]; w[k]=t;
+        return partition(w,min,max);
+    }
+    static int lt(long range) { return (int)(range >>> 32); }
+    static int gt(long range) { return (int)range; }
+
+    // The selects below all come in two versions: one pivoting on the first
+    // element as originally, and one taking a PivotStrategy. The strategy
+    // is started with begin() by the entry points taking the whole input;
+    // the methods working on a range of w expect an already started one.
 
     public static int quickSelect(int[] inp) {
+        return quickSelect(inp, PivotStrategy.FIRST);
+    }
+    public static int quickSelect(int[] inp, PivotStrategy s) {
         int w[] = Arrays.copyOf(inp, inp.length);
-        return quickSelect(w,0,w.length,w.length/2);
+        return quickSelect(w,0,w.length,w.length/2,s.begin(w.length));
     }
     public static int quickSelect(int[] w, int min, int max, int target) {
-        int p = partition(w,min,max);
-        if( p < target ) return quickSelect(w,p+1,max,target);
-        if( p > target ) return quickSelect(w,min,p,target);
-        return w[target]; // p==target
+        return quickSelect(w,min,max,target,PivotStrategy.FIRST);
+    }
+    public static int quickSelect(int[] w, int min, int max, int target, PivotStrategy s) {
+        long r = partition(w,min,max,s.pivot(w,min,max,target));
+        if( gt(r) <= target ) return quickSelect(w,gt(r),max,target,s);
+        if( lt(r) > target ) return quickSelect(w,min,lt(r),target,s);
+        return w[target]; // target among the pivot's copies
+    }
+
+    // Selects all of the given ranks from one scratch copy of inp. The ranks
+    // must be sorted ascending; res[i] is the element of rank ranks[i].
+    public static int[] quickSelect(int[] inp, int[] ranks) {
+        return quickSelect(inp, ranks, PivotStrategy.FIRST);
+    }
+    public static int[] quickSelect(int[] inp, int[] ranks, PivotStrategy s) {
+        int w[] = Arrays.copyOf(inp, inp.length);
+        int res[] = new int[ranks.length];
+        quickSelect(w,0,w.length,ranks,0,ranks.length,res,s.begin(w.length));
+        return res;
+    }
+    // Like quickSelect(w,min,max,target) for the ranks in ranks[rmin..rmax),
+    // which all lie within [min,max). Only descends into the sides of the
+    // partition that still hold a requested rank; the right side is handled
+    // by looping rather than recursing.
+    public static void quickSelect(int[] w, int min, int max,
+            int[] ranks, int rmin, int rmax, int[] res, PivotStrategy s) {
+        while( rmin < rmax ) {
+            // Aim the pivot at the middle requested rank
+            long r = partition(w,min,max,s.pivot(w,min,max,ranks[(rmin+rmax)/2]));
+            int lo = rmin;
+            while( lo < rmax && ranks[lo] < lt(r) ) lo++;
+            int hi = lo;
+            while( hi < rmax && ranks[hi] < gt(r) ) res[hi++] = w[lt(r)];
+            quickSelect(w,min,lt(r),ranks,rmin,lo,res,s);
+            min = gt(r);
+            rmin = hi;
+        }
+    }
+
+    // Quantiles qs (each in [0,1], ascending) of inp in one pass, using the
+    // same rank convention as the median methods, i.e. 0.5 gives length/2.
+    public static int[] quantiles(int[] inp, double... qs) {
+        return quantiles(inp, PivotStrategy.FIRST, qs);
+    }
+    public static int[] quantiles(int[] inp, PivotStrategy s, double... qs) {
+        int ranks[] = new int[qs.length];
+        for(int i=0;i<qs.length;i++)
+            ranks[i] = Math.min(inp.length-1, (int)(qs[i]*inp.length));
+        return quickSelect(inp, ranks, s);
     }
 
     public static int quickSelectIt(int[] inp) {
+        return quickSelectIt(inp, PivotStrategy.FIRST);
+    }
+    public static int quickSelectIt(int[] inp, PivotStrategy s) {
         int w[] = Arrays.copyOf(inp, inp.length);
         int target = w.length/2;
-        int p = -1, min=0, max=w.length;
+        int min=0, max=w.length;
+        s = s.begin(w.length);
         do{
-            p = partition(w,min,max);
-            if( p < target )  min=p+1;
-            if( p > target )  max=p;
-        } while(p!=target);
-        return w[p];
+            long r = partition(w,min,max,s.pivot(w,min,max,target));
+            if( gt(r) <= target ) min=gt(r);
+            else if( lt(r) > target ) max=lt(r);
+            else return w[target];
+        } while(true);
     }
 
+    // The count based selects take the pivot from index k rather than 0.
+    // Besides the elements < p they count those == p, which include inp[k]:
+    // a target among them is p, and otherwise only the side < p or the side
+    // > p is kept. Dropping all copies of p at once keeps inputs made mostly
+    // of duplicates from shrinking by a single element per round.
     public static int quickCountRec(int[] inp, int target) {
-        final int p=inp[0], n=inp.length;
-        int  count=0;
-        for(int i=1;i<n;i++) if(inp[i]<p) count++;
+        return quickCountRec(inp, target, PivotStrategy.FIRST);
+    }
+    public static int quickCountRec(int[] inp, int target, PivotStrategy s) {
+        return countRec(inp, target, s.begin(inp.length));
+    }
+    private static int countRec(int[] inp, int target, PivotStrategy s) {
+        final int n=inp.length, k=s.pivot(inp,0,n,target), p=inp[k];
+        int  count=0, equal=0;
+        for(int i=0;i<n;i++) if(inp[i]<p) count++; else if(inp[i]==p) equal++;
         if(count > target) {
             int m[] = new int[count];
             int j=0;
-            for(int i=1;i<n;i++) if(inp[i]<p) m[j++]=inp[i];
-            return quickCountRec(m,target);
+            for(int i=0;i<n;i++) if(inp[i]<p) m[j++]=inp[i];
+            return countRec(m,target,s);
         }
-        if(count < target) {
-            int m[] = new int[n-count-1];
+        if(count+equal <= target) {
+            int m[] = new int[n-count-equal];
             int j=0;
-            for(int i=1;i<n;i++) if(inp[i]>=p) m[j++]=inp[i];
-            return quickCountRec(m,target-count-1);
+            for(int i=0;i<n;i++) if(inp[i]>p) m[j++]=inp[i];
+            return countRec(m,target-count-equal,s);
         }    
         return p; // we are on target
     }
 
     public static int quickCountIt(int[] inp) {
-        int p=-1, count=0, n=inp.length;
-        int target = n/2;
+        return quickCountIt(inp, inp.length/2);
+    }
+    public static int quickCountIt(int[] inp, int target) {
+        return quickCountIt(inp, target, PivotStrategy.FIRST);
+    }
+    public static int quickCountIt(int[] inp, int target, PivotStrategy s) {
+        return quickCountIt(inp, target, s, KERNELS);
+    }
+    // The count and compact loops are done by kern, which may be
+    // SelectKernels.SCALAR or the Vector API ones from SelectKernels.best().
+    // Copies of p are only counted when the select does not go left.
+    public static int quickCountIt(int[] inp, int target, PivotStrategy s, SelectKernels kern) {
+        int p=-1, k=0, count=0, equal=0, n=inp.length;
+        s = s.begin(n);
         do {
-            p=inp[0];
-            count=0;
             n=inp.length;
-            for(int i=1;i<n;i++) if(inp[i]<p) count++;
+            k=s.pivot(inp,0,n,target);
+            p=inp[k];
+            count=kern.countLess(inp,0,n,p);
             if(count > target) {
                 int m[] = new int[count];
-                int j=0;
-                for(int i=1;i<n;i++) if(inp[i]<p) m[j++]=inp[i];
+                kern.compact(inp,0,n,p,true,m,0);
                 inp = m;
                 continue;
             }
-            if(count < target) {
-                int m[] = new int[n-count-1];
-                int j=0;
-                for(int i=1;i<n;i++) if(inp[i]>=p) m[j++]=inp[i];
+            equal=kern.countEqual(inp,0,n,p);
+            if(count+equal <= target) {
+                int m[] = new int[n-count-equal];
+                kern.compact(inp,0,n,p,false,m,0);
                 inp =m;
-                target=target-count-1;
+                target=target-count-equal;
                 continue;
             }
             break;
@@ -103,16 +193,20 @@ class TestQuickSelect {
     // returning an array of the given size containing elements of arr for which 
     // f.apply(arr[i], partition) returns true.
     public static int[] filter(int[] arr, int partition, int size,  BiFunction<Integer,Integer,Boolean> f){
+        return filter(arr, 0, partition, size, f);
+    }
+    // As above, skipping the pivot at index k rather than at index 0
+    public static int[] filter(int[] arr, int k, int partition, int size,  BiFunction<Integer,Integer,Boolean> f){
         int[] m = new int[size];
         ArrayList<Callable<Void>> filterers = new ArrayList<>();
         final AtomicInteger j = new AtomicInteger(0);
         final int step = arr.length/threadCount;
         for(int i=0;i<threadCount;i++) {
-            final int from = i==0 ? 1 : i*step;
+            final int from = i*step;
             final int to = i==threadCount-1 ? arr.length : i*step+step;
             filterers.add(() -> {
                 for(int h= from; h<to; h++)
-                    if(f.apply(arr[h],partition)) m[j.getAndIncrement()]=arr[h];
+                    if(h!=k && f.apply(arr[h],partition)) m[j.getAndIncrement()]=arr[h];
                 return null;
             });
         }
@@ -123,44 +217,233 @@ class TestQuickSelect {
 
     final static ExecutorService executor = Executors.newWorkStealingPool();
     final static int CUTOFF = 10_000;
+    // The kernels the selects use unless given others
+    final static SelectKernels KERNELS = SelectKernels.best();
     public static int quickCountItTask(int[] in) {
+        return quickCountItTask(in, PivotStrategy.FIRST);
+    }
+    public static int quickCountItTask(int[] in, PivotStrategy s) {
+        return quickCountItTask(in, s, KERNELS);
+    }
+    // Each chunk counts with kern and adds its counts to the shared atomics
+    public static int quickCountItTask(int[] in, PivotStrategy s, SelectKernels kern) {
         int target = in.length/2;
+        s = s.begin(in.length);
         do {
-            if (in.length <= CUTOFF) return quickCountIt(in);
-            final AtomicInteger count = new AtomicInteger(0);
+            if (in.length <= CUTOFF) return quickCountIt(in, target, s, kern);
+            final AtomicInteger count = new AtomicInteger(0), equal = new AtomicInteger(0);
             final int[] inp = in;
-            final int n = inp.length, p = inp[0];
+            final int n = inp.length, k = s.pivot(inp,0,n,target), p = inp[k];
             final int step = n/threadCount;
 
-            //Counting
+            //Counting, the pivot itself among the copies of p
             ArrayList<Callable<Void>> counters = new ArrayList<>();
             for(int i=0;i<threadCount;i++) {
-                final int from = i==0 ? 1 : i*step; //skip pivot
+                final int from = i*step;
                 // for indivisible numbers, just let the last thread take a larger chunk
                 final int to = i==threadCount-1 ? inp.length : i*step+step;
                 counters.add(() -> {
-                    for(int j= from; j<to; j++)
-                        if(inp[j]<p) count.getAndIncrement(); 
+                    count.addAndGet(kern.countLess(inp,from,to,p));
+                    equal.addAndGet(kern.countEqual(inp,from,to,p));
                     return null;
                 });
             }
             try{ executor.invokeAll(counters);
             } catch (InterruptedException e) { System.err.println("Threads interrupted");}
 
-            if (count.get() == target) return p; //Terminated
+            boolean tooLargeP = count.get() > target;
+            if (!tooLargeP && target < count.get()+equal.get()) return p; //Terminated
 
             //Filtering
-            boolean tooLargeP = count.get() > target;
-            int size = tooLargeP ? count.get() : n-count.get()-1;
+            int size = tooLargeP ? count.get() : n-count.get()-equal.get();
             if(tooLargeP) {
-                in = filter(inp, p, size, (x,y) -> x < y);
+                in = filter(inp, k, p, size, (x,y) -> x < y);
             } else {
-                in = filter(inp, p, size, (x,y) -> x >= y);
-                target=target-count.get()-1;
+                in = filter(inp, k, p, size, (x,y) -> x > y);
+                target=target-count.get()-equal.get();
             }
         } while( true );
     }
 
+    // Count-and-compact variant of quickCountItTask. Each chunk counts into its
+    // own slot of counts[], a prefix sum over those gives every chunk the offset
+    // it writes its survivors to, so no atomics are shared between threads.
+    // Survivors keep their input order, making each round deterministic.
+    // Rounds ping-pong between two buffers: since the surviving range only
+    // shrinks, the buffers allocated in the first two rounds are reused after.
+    // Copies of p are counted, per chunk, in a second pass that only runs
+    // when the select does not go left.
+    public static int quickCountItCompact(int[] in) {
+        return quickCountItCompact(in, PivotStrategy.FIRST);
+    }
+    public static int quickCountItCompact(int[] in, PivotStrategy s) {
+        return quickCountItCompact(in, s, KERNELS);
+    }
+    public static int quickCountItCompact(int[] in, PivotStrategy s, SelectKernels kern) {
+        int target = in.length/2, n = in.length, round = 0;
+        final int[][] bufs = new int[2][];
+        final int[] counts = new int[threadCount], equals = new int[threadCount];
+        final int[] offsets = new int[threadCount];
+        int[] src = in;
+        s = s.begin(n);
+        do {
+            if (n <= CUTOFF) return quickCountIt(Arrays.copyOf(src, n), target, s, kern);
+            final int[] inp = src;
+            final int len = n, k = s.pivot(inp,0,len,target), p = inp[k];
+            final int step = len/threadCount;
+
+            //Counting, each chunk into its own slot
+            ArrayList<Callable<Void>> counters = new ArrayList<>();
+            for(int i=0;i<threadCount;i++) {
+                final int c = i;
+                final int from = i*step;
+                final int to = i==threadCount-1 ? len : i*step+step;
+                counters.add(() -> {
+                    counts[c] = kern.countLess(inp,from,to,p);
+                    return null;
+                });
+            }
+            try{ executor.invokeAll(counters);
+            } catch (InterruptedException e) { System.err.println("Threads interrupted");}
+
+            int count = 0, equal = 0;
+            for(int c : counts) count += c;
+            final boolean tooLargeP = count > target;
+            if (!tooLargeP) {
+                ArrayList<Callable<Void>> equalCounters = new ArrayList<>();
+                for(int i=0;i<threadCount;i++) {
+                    final int c = i;
+                    final int from = i*step;
+                    final int to = i==threadCount-1 ? len : i*step+step;
+                    equalCounters.add(() -> {
+                        equals[c] = kern.countEqual(inp,from,to,p);
+                        return null;
+                    });
+                }
+                try{ executor.invokeAll(equalCounters);
+                } catch (InterruptedException e) { System.err.println("Threads interrupted");}
+                for(int c : equals) equal += c;
+                if (target < count+equal) return p; //Terminated
+            }
+
+            //Prefix sum over the survivors of each chunk
+            int size = 0;
+            for(int i=0;i<threadCount;i++) {
+                final int from = i*step;
+                final int to = i==threadCount-1 ? len : i*step+step;
+                offsets[i] = size;
+                size += tooLargeP ? counts[i] : (to-from)-counts[i]-equals[i];
+            }
+
+            //Compacting into the buffer not read from this round
+            final int b = round++ & 1;
+            if (bufs[b] == null) bufs[b] = new int[size];
+            final int[] m = bufs[b];
+            ArrayList<Callable<Void>> compactors = new ArrayList<>();
+            for(int i=0;i<threadCount;i++) {
+                final int from = i*step;
+                final int to = i==threadCount-1 ? len : i*step+step;
+                final int offset = offsets[i];
+                compactors.add(() -> {
+                    kern.compact(inp,from,to,p,tooLargeP,m,offset);
+                    return null;
+                });
+            }
+            try{ executor.invokeAll(compactors);
+            } catch (InterruptedException e) { System.err.println("Threads interrupted");}
+
+            if (!tooLargeP) target=target-count-equal;
+            src = m;
+            n = size;
+        } while( true );
+    }
+
+    // Byte-wise MSD radix select. Each round histograms one byte of the keys,
+    // most significant first, with one 256-bucket histogram per chunk, and
+    // finds the bucket holding target. The chunks then copy that bucket's
+    // elements out at offsets given by their own histograms, so the next
+    // round only looks at those. The sign bit is flipped to make the byte
+    // order match the int order. At most 4 rounds; a round whose bucket
+    // holds everything skips the copy.
+    public static int radixSelect(int[] inp) {
+        return radixSelect(inp, inp.length/2, 1);
+    }
+    public static int radixSelectP(int[] inp) {
+        return radixSelect(inp, inp.length/2, threadCount);
+    }
+    public static int radixSelect(int[] inp, int target, int chunks) {
+        final int[][] bufs = new int[2][];
+        int[] src = inp;
+        int n = inp.length, round = 0, prefix = 0;
+        for(int shift=24;;shift-=8) {
+            final int[] w = src;
+            final int len = n, sh = shift;
+            final int parts = len <= CUTOFF ? 1 : chunks, step = len/parts;
+
+            //Histograms, one per chunk
+            final int[][] hist = new int[parts][256];
+            ArrayList<Callable<Void>> counters = new ArrayList<>();
+            for(int i=0;i<parts;i++) {
+                final int[] h = hist[i];
+                final int from = i*step, to = i==parts-1 ? len : i*step+step;
+                counters.add(() -> {
+                    for(int j=from;j<to;j++) h[((w[j]^Integer.MIN_VALUE) >>> sh) & 0xff]++;
+                    return null;
+                });
+            }
+            invoke(counters);
+
+            int b = 0, total = 0;
+            for(;;b++) {
+                total = 0;
+                for(int[] h : hist) total += h[b];
+                if (target < total) break;
+                target -= total;
+            }
+            prefix |= b << shift;
+            if (shift == 0) return prefix ^ Integer.MIN_VALUE;
+            if (total == len) continue;
+
+            //Copy out the bucket
+            final int bucket = b, bf = round++ & 1;
+            if (bufs[bf] == null) bufs[bf] = new int[total];
+            final int[] m = bufs[bf];
+            ArrayList<Callable<Void>> compactors = new ArrayList<>();
+            for(int i=0, offset=0;i<parts;i++) {
+                final int from = i*step, to = i==parts-1 ? len : i*step+step, o0 = offset;
+                offset += hist[i][bucket];
+                compactors.add(() -> {
+                    int o = o0;
+                    for(int j=from;j<to;j++)
+                        if((((w[j]^Integer.MIN_VALUE) >>> sh) & 0xff) == bucket) m[o++]=w[j];
+                    return null;
+                });
+            }
+            invoke(compactors);
+            src = m;
+            n = total;
+        }
+    }
+
+    // Runs a single task on the calling thread, more on the executor, and
+    // waits for all of them. What a task throws is rethrown, unchecked, and
+    // an interrupt cancels the select rather than leave it half done.
+    static void invoke(List<Callable<Void>> tasks) {
+        try{
+            if (tasks.size() == 1) tasks.get(0).call();
+            else for (Future<Void> f : executor.invokeAll(tasks)) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("select interrupted");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static int quickCountStreamP(int[] inp) {
         int partition=-1;
         int target = inp.length/2;
@@ -209,6 +492,35 @@ class TestQuickSelect {
         return partition; // we are on target
     }
 
+    // Unboxed counterparts of quickCountStream and quickCountStreamP. Each
+    // round streams the current array, minus the pivot, as plain ints
+    // through an IntRangeSpliterator and collects them into an IntPartition.
+    public static int quickCountIntStream(int[] inp) {
+        return quickCountIntStream(inp, false, PivotStrategy.FIRST);
+    }
+    public static int quickCountIntStreamP(int[] inp) {
+        return quickCountIntStream(inp, true, PivotStrategy.FIRST);
+    }
+    public static int quickCountIntStream(int[] inp, boolean parallel, PivotStrategy s) {
+        int target = inp.length/2, n = inp.length;
+        int[] w = inp;
+        s = s.begin(n);
+        do {
+            final int k = s.pivot(w,0,n,target), p = w[k];
+            IntPartition res = IntPartition.collect(
+                IntStream.concat(IntRangeSpliterator.stream(w,0,k,parallel),
+                                 IntRangeSpliterator.stream(w,k+1,n,parallel)), p);
+            if (res.lessCount > target) {
+                w = res.less;
+                n = res.lessCount;
+            } else if (res.lessCount+res.equalCount < target) {
+                target=target-res.lessCount-res.equalCount-1;
+                w = res.greater;
+                n = res.greaterCount;
+            } else return p; // we are on target
+        } while( true );
+    }
+
     public static final int threadCount = 4;
     public static void main( String [] args ) {
         SystemInfo();
@@ -235,18 +547,121 @@ class TestQuickSelect {
             System.out.println(medianPSort(a));
             System.out.println(quickCountRec(a,a.length/2));
         }
+        try { KllSketch.validate(a, 200, threadCount);
+        } catch (Exception e) { System.err.println("Sketch validation failed: " + e); }
         double d=0.0;
         d += Mark9("serial sort", a.length, x -> medianSort(a));
         d += Mark9("parall sort", a.length, x -> medianPSort(a));
         d += Mark9("serial qsel", a.length, x -> quickSelect(a));
+        final double[] qs = { 0.5, 0.9, 0.99, 0.999 };
+        d += Mark9("4x qsel", a.length, x -> { 
+            int s = 0; for(double q : qs) s += quantiles(a, q)[0]; return s; });
+        d += Mark9("multi qsel", a.length, x -> quantiles(a, qs)[0]);
         d += Mark9("ser countRc", a.length,x -> quickCountRec(a,a.length/2));
         d += Mark9("ser countIt", a.length,x -> quickCountIt(a));
         d += Mark9("par countIt", a.length,x -> quickCountItTask(a));
+        d += Mark9("par countCmp", a.length,x -> quickCountItCompact(a));
+        System.out.printf("# select kernels: %s%n", KERNELS);
+        for(SelectKernels sk : new SelectKernels[] { SelectKernels.SCALAR, KERNELS }) {
+            d += Mark9("countIt " + sk, a.length,
+                x -> quickCountIt(a, a.length/2, PivotStrategy.FIRST, sk));
+            d += Mark9("par countCmp " + sk, a.length,
+                x -> quickCountItCompact(a, PivotStrategy.FIRST, sk));
+        }
+        d += Mark9("ser radix", a.length,x -> radixSelect(a));
+        d += Mark9("par radix", a.length,x -> radixSelectP(a));
+        final ForkJoinSelect fj = new ForkJoinSelect(ForkJoinPool.commonPool());
+        System.out.printf("# fork/join cutoff: %d%n", fj.cutoff());
+        d += Mark9("fj countIt", a.length,x -> fj.median(a));
         d += Mark9("countStream", a.length,x -> quickCountStream(a));
         d += Mark9("countStreamP", a.length,x -> quickCountStreamP(a));
+        d += Mark9("intStream", a.length,x -> quickCountIntStream(a));
+        d += Mark9("intStreamP", a.length,x -> quickCountIntStreamP(a));
+        d += Mark9("kll sketch", a.length,x -> {
+            KllSketch s = new KllSketch(200);
+            for(int v : a) s.update(v);
+            return s.quantile(0.5); });
+        d += keyTypes(a);
+        d += adversarial(a.length);
+        for(int len : new int[] { 100, 1_000, 10_000 })
+            if (len <= a.length) d += BatchMedian.benchmark(a, len, threadCount);
         System.out.println(d);
     }
 
+    // Runs the TypedSelect variants on a converted to long, double and boxed
+    // Long keys, the latter through a Comparator, to compare specialization.
+    // Then again on a reduced to 16 distinct keys, as coarse latencies are.
+    public static double keyTypes(int[] a) {
+        final long[] la = new long[a.length], ld = new long[a.length];
+        final double[] da = new double[a.length], dd = new double[a.length];
+        final Long[] oa = new Long[a.length], od = new Long[a.length];
+        for(int i=0;i<a.length;i++) {
+            la[i] = a[i];
+            da[i] = a[i];
+            oa[i] = la[i];
+            ld[i] = a[i] % 16;
+            dd[i] = ld[i];
+            od[i] = ld[i];
+        }
+        final Comparator<Long> cmp = Comparator.naturalOrder();
+        double d=0.0;
+        d += Mark9("long qselIt", a.length, x -> TypedSelect.quickSelectIt(la));
+        d += Mark9("long par countCmp", a.length, x -> TypedSelect.quickCountItCompact(la));
+        d += Mark9("long stream", a.length, x -> TypedSelect.quickCountStream(la, false));
+        d += Mark9("long streamP", a.length, x -> TypedSelect.quickCountStream(la, true));
+        d += Mark9("double qselIt", a.length, x -> TypedSelect.quickSelectIt(da));
+        d += Mark9("double par countCmp", a.length, x -> TypedSelect.quickCountItCompact(da));
+        d += Mark9("double stream", a.length, x -> TypedSelect.quickCountStream(da, false));
+        d += Mark9("double streamP", a.length, x -> TypedSelect.quickCountStream(da, true));
+        d += Mark9("Long qselIt", a.length, x -> TypedSelect.quickSelectIt(oa, cmp));
+        d += Mark9("Long par countCmp", a.length, x -> TypedSelect.quickCountItCompact(oa, cmp));
+        d += Mark9("Long stream", a.length, x -> TypedSelect.quickCountStream(oa, cmp, false));
+        d += Mark9("Long streamP", a.length, x -> TypedSelect.quickCountStream(oa, cmp, true));
+        d += Mark9("long dups qselIt", a.length, x -> TypedSelect.quickSelectIt(ld));
+        d += Mark9("long dups par countCmp", a.length, x -> TypedSelect.quickCountItCompact(ld));
+        d += Mark9("long dups stream", a.length, x -> TypedSelect.quickCountStream(ld, false));
+        d += Mark9("double dups qselIt", a.length, x -> TypedSelect.quickSelectIt(dd));
+        d += Mark9("double dups par countCmp", a.length, x -> TypedSelect.quickCountItCompact(dd));
+        d += Mark9("double dups stream", a.length, x -> TypedSelect.quickCountStream(dd, false));
+        d += Mark9("Long dups qselIt", a.length, x -> TypedSelect.quickSelectIt(od, cmp));
+        d += Mark9("Long dups par countCmp", a.length, x -> TypedSelect.quickCountItCompact(od, cmp));
+        d += Mark9("Long dups stream", a.length, x -> TypedSelect.quickCountStream(od, cmp, false));
+        return d;
+    }
+
+    // Runs the iterative selects on inputs that make first element pivoting
+    // quadratic, once per pivot strategy. FIRST is left out as it would not
+    // finish for large inputs, and so are plain MEDIAN_OF_3 and NINTHER:
+    // reversed and organ pipe input make median of three quadratic too.
+    // Input of three distinct keys checks that duplicates are set aside.
+    public static double adversarial(int n) {
+        final int[] sorted = new int[n], reversed = new int[n], organ = new int[n];
+        final int[] dups = new int[n];
+        for(int i=0;i<n;i++) {
+            sorted[i] = i;
+            reversed[i] = n-i;
+            organ[i] = i < n/2 ? i : n-i;
+            dups[i] = i % 3;
+        }
+        final String[] inputNames = { "sorted", "reversed", "organ pipe", "3 distinct" };
+        final int[][] inputs = { sorted, reversed, organ, dups };
+        final String[] names = { "random", "floyd-riv", "mom", "intro med3", "intro ninther" };
+        final PivotStrategy[] strategies = { PivotStrategy.RANDOM, PivotStrategy.FLOYD_RIVEST,
+            PivotStrategy.MEDIAN_OF_MEDIANS, PivotStrategy.introselect(PivotStrategy.MEDIAN_OF_3),
+            PivotStrategy.introselect(PivotStrategy.NINTHER) };
+        double d=0.0;
+        for(int i=0;i<inputs.length;i++) {
+            System.out.printf("# %s input%n", inputNames[i]);
+            final int[] inp = inputs[i];
+            for(int j=0;j<strategies.length;j++) {
+                final PivotStrategy s = strategies[j];
+                d += Mark9("qselIt " + names[j], n, x -> quickSelectIt(inp, s));
+                d += Mark9("countIt " + names[j], n, x -> quickCountIt(inp, n/2, s));
+            }
+        }
+        return d;
+    }
+
     public static double Mark9(String msg, int size, IntToDoubleFunction f) {
         int n = 5, count = 1, totalCount = 0;
         double dummy = 0.0, runningTime = 0.0, st = 0.0, sst = 0.0;
@@ -0,0 +1,442 @@
+import java.util.*;
+import java.util.stream.*;
+import java.util.concurrent.*;
+
+// The iterative, parallel count-and-compact and stream selects of
+// TestQuickSelect for long, double and Comparator ordered keys. The
+// primitive versions are specialized by hand, so nothing is boxed. double
+// keys are ordered as by Double.compare: -0.0 before 0.0, and NaN after
+// everything else. All versions pivot on a random element, and like the int
+// ones set aside every copy of the pivot in a round, partitioning three ways
+// or counting the keys equal to it, so duplicate keys cost no extra rounds.
+class TypedSelect {
+    static final int threadCount = TestQuickSelect.threadCount, CUTOFF = TestQuickSelect.CUTOFF;
+
+    // Double.compare(a, b) < 0, with the common case of distinct ordinary
+    // values decided by the first comparison.
+    static boolean less(double a, double b) {
+        return a < b || (!(a > b) && Double.compare(a, b) < 0);
+    }
+
+    // long keys
+
+    public static long quickSelectIt(long[] inp) {
+        long w[] = Arrays.copyOf(inp, inp.length);
+        return select(w, w.length, w.length/2);
+    }
+
+    // Iterative quickSelect of rank target in w[0..n), reordering w
+    static long select(long[] w, int n, int target) {
+        int min=0, max=n;
+        do{
+            final long r = partition(w,min,max);
+            final int lt = TestQuickSelect.lt(r), gt = TestQuickSelect.gt(r);
+            if( gt <= target ) min=gt;
+            else if( lt > target ) max=lt;
+            else return w[target];
+        } while(true);
+    }
+
+    // Three-way partitions w[min..max) around a random element, returning
+    // the range of its copies as TestQuickSelect.partition does
+    static long partition(long[] w, int min, int max) {
+        final long p = w[min + ThreadLocalRandom.current().nextInt(max-min)];
+        int lt=min, i=min, gt=max;
+        while(i < gt) {
+            if(w[i] < p) { long t=w[lt]; w[lt++]=w[i]; w[i++]=t; }
+            else if(w[i] > p) { long t=w[--gt]; w[gt]=w[i]; w[i]=t; }
+            else i++;
+        }
+        return (long)lt << 32 | gt;
+    }
+
+    public static long quickCountItCompact(long[] in) {
+        int target = in.length/2, n = in.length, round = 0;
+        final long[][] bufs = new long[2][];
+        final int[] counts = new int[threadCount], equals = new int[threadCount];
+        final int[] offsets = new int[threadCount];
+        long[] src = in;
+        do {
+            if (n <= CUTOFF) return select(Arrays.copyOf(src, n), n, target);
+            final long[] inp = src;
+            final int len = n, k = ThreadLocalRandom.current().nextInt(len), step = len/threadCount;
+            final long p = inp[k];
+
+            ArrayList<Callable<Void>> counters = new ArrayList<>();
+            for(int i=0;i<threadCount;i++) {
+                final int c = i, from = i*step, to = i==threadCount-1 ? len : i*step+step;
+                counters.add(() -> {
+                    int local = 0, equal = 0;
+                    for(int j= from; j<to; j++) if(inp[j] < p) local++; else if(inp[j] == p) equal++;
+                    counts[c] = local;
+                    equals[c] = equal;
+                    return null;
+                });
+            }
+            TestQuickSelect.invoke(counters);
+
+            int count = 0, equal = 0;
+            for(int c : counts) count += c;
+            for(int c : equals) equal += c;
+            if (count <= target && target < count+equal) return p;
+
+            final boolean tooLargeP = count > target;
+            int size = 0;
+            for(int i=0;i<threadCount;i++) {
+                final int from = i*step, to = i==threadCount-1 ? len : i*step+step;
+                offsets[i] = size;
+                size += tooLargeP ? counts[i] : (to-from)-counts[i]-equals[i];
+            }
+            final int b = round++ & 1;
+            if (bufs[b] == null) bufs[b] = new long[size];
+            final long[] m = bufs[b];
+            ArrayList<Callable<Void>> compactors = new ArrayList<>();
+            for(int i=0;i<threadCount;i++) {
+                final int from = i*step, to = i==threadCount-1 ? len : i*step+step, offset = offsets[i];
+                compactors.add(() -> {
+                    int o = offset;
+                    if (tooLargeP) {
+                        for(int j= from; j<to; j++) if(inp[j] < p) m[o++]=inp[j];
+                    } else {
+                        for(int j= from; j<to; j++) if(inp[j] > p) m[o++]=inp[j];
+                    }
+                    return null;
+                });
+            }
+            TestQuickSelect.invoke(compactors);
+
+            if (!tooLargeP) target=target-count-equal;
+            src = m;
+            n = size;
+        } while( true );
+    }
+
+    public static long quickCountStream(long[] inp, boolean parallel) {
+        int target = inp.length/2, n = inp.length;
+        long[] w = inp;
+        do {
+            final int k = ThreadLocalRandom.current().nextInt(n);
+            final long p = w[k];
+            LongPartition res = LongStream.concat(stream(w,0,k,parallel), stream(w,k+1,n,parallel))
+                .collect(() -> new LongPartition(p), LongPartition::accept, LongPartition::combine);
+            if (res.lessCount > target) {
+                w = res.less;
+                n = res.lessCount;
+            } else if (res.lessCount+res.equalCount < target) {
+                target=target-res.lessCount-res.equalCount-1;
+                w = res.greater;
+                n = res.greaterCount;
+            } else return p;
+        } while( true );
+    }
+
+    private static LongStream stream(long[] w, int from, int to, boolean parallel) {
+        LongStream s = Arrays.stream(w, from, to);
+        return parallel ? s.parallel() : s;
+    }
+
+    // Like IntPartition, for long
+    static class LongPartition {
+        final long p;
+        long[] less = new long[16], greater = new long[16];
+        int lessCount = 0, equalCount = 0, greaterCount = 0;
+
+        LongPartition(long p) { this.p = p; }
+
+        void accept(long x) {
+            if (x < p) {
+                if (lessCount == less.length) less = Arrays.copyOf(less, 2*lessCount);
+                less[lessCount++] = x;
+            } else if (x > p) {
+                if (greaterCount == greater.length) greater = Arrays.copyOf(greater, 2*greaterCount);
+                greater[greaterCount++] = x;
+            } else {
+                equalCount++;
+            }
+        }
+
+        void combine(LongPartition other) {
+            less = append(less, lessCount, other.less, other.lessCount);
+            lessCount += other.lessCount;
+            equalCount += other.equalCount;
+            greater = append(greater, greaterCount, other.greater, other.greaterCount);
+            greaterCount += other.greaterCount;
+        }
+
+        private static long[] append(long[] a, int n, long[] b, int m) {
+            if (n+m > a.length) a = Arrays.copyOf(a, Math.max(n+m, 2*n));
+            System.arraycopy(b, 0, a, n, m);
+            return a;
+        }
+    }
+
+    // double keys
+
+    public static double quickSelectIt(double[] inp) {
+        double w[] = Arrays.copyOf(inp, inp.length);
+        return select(w, w.length, w.length/2);
+    }
+
+    // Iterative quickSelect of rank target in w[0..n), reordering w
+    static double select(double[] w, int n, int target) {
+        int min=0, max=n;
+        do{
+            final long r = partition(w,min,max);
+            final int lt = TestQuickSelect.lt(r), gt = TestQuickSelect.gt(r);
+            if( gt <= target ) min=gt;
+            else if( lt > target ) max=lt;
+            else return w[target];
+        } while(true);
+    }
+
+    static long partition(double[] w, int min, int max) {
+        final double p = w[min + ThreadLocalRandom.current().nextInt(max-min)];
+        int lt=min, i=min, gt=max;
+        while(i < gt) {
+            if(less(w[i], p)) { double t=w[lt]; w[lt++]=w[i]; w[i++]=t; }
+            else if(less(p, w[i])) { double t=w[--gt]; w[gt]=w[i]; w[i]=t; }
+            else i++;
+        }
+        return (long)lt << 32 | gt;
+    }
+
+    public static double quickCountItCompact(double[] in) {
+        int target = in.length/2, n = in.length, round = 0;
+        final double[][] bufs = new double[2][];
+        final int[] counts = new int[threadCount], equals = new int[threadCount];
+        final int[] offsets = new int[threadCount];
+        double[] src = in;
+        do {
+            if (n <= CUTOFF) return select(Arrays.copyOf(src, n), n, target);
+            final double[] inp = src;
+            final int len = n, k = ThreadLocalRandom.current().nextInt(len), step = len/threadCount;
+            final double p = inp[k];
+
+            ArrayList<Callable<Void>> counters = new ArrayList<>();
+            for(int i=0;i<threadCount;i++) {
+                final int c = i, from = i*step, to = i==threadCount-1 ? len : i*step+step;
+                counters.add(() -> {
+                    int local = 0, equal = 0;
+                    for(int j= from; j<to; j++) if(less(inp[j], p)) local++; else if(!less(p, inp[j])) equal++;
+                    counts[c] = local;
+                    equals[c] = equal;
+                    return null;
+                });
+            }
+            TestQuickSelect.invoke(counters);
+
+            int count = 0, equal = 0;
+            for(int c : counts) count += c;
+            for(int c : equals) equal += c;
+            if (count <= target && target < count+equal) return p;
+
+            final boolean tooLargeP = count > target;
+            int size = 0;
+            for(int i=0;i<threadCount;i++) {
+                final int from = i*step, to = i==threadCount-1 ? len : i*step+step;
+                offsets[i] = size;
+                size += tooLargeP ? counts[i] : (to-from)-counts[i]-equals[i];
+            }
+            final int b = round++ & 1;
+            if (bufs[b] == null) bufs[b] = new double[size];
+            final double[] m = bufs[b];
+            ArrayList<Callable<Void>> compactors = new ArrayList<>();
+            for(int i=0;i<threadCount;i++) {
+                final int from = i*step, to = i==threadCount-1 ? len : i*step+step, offset = offsets[i];
+                compactors.add(() -> {
+                    int o = offset;
+                    if (tooLargeP) {
+                        for(int j= from; j<to; j++) if(less(inp[j], p)) m[o++]=inp[j];
+                    } else {
+                        for(int j= from; j<to; j++) if(less(p, inp[j])) m[o++]=inp[j];
+                    }
+                    return null;
+                });
+            }
+            TestQuickSelect.invoke(compactors);
+
+            if (!tooLargeP) target=target-count-equal;
+            src = m;
+            n = size;
+        } while( true );
+    }
+
+    public static double quickCountStream(double[] inp, boolean parallel) {
+        int target = inp.length/2, n = inp.length;
+        double[] w = inp;
+        do {
+            final int k = ThreadLocalRandom.current().nextInt(n);
+            final double p = w[k];
+            DoublePartition res = DoubleStream.concat(stream(w,0,k,parallel), stream(w,k+1,n,parallel))
+                .collect(() -> new DoublePartition(p), DoublePartition::accept, DoublePartition::combine);
+            if (res.lessCount > target) {
+                w = res.less;
+                n = res.lessCount;
+            } else if (res.lessCount+res.equalCount < target) {
+                target=target-res.lessCount-res.equalCount-1;
+                w = res.greater;
+                n = res.greaterCount;
+            } else return p;
+        } while( true );
+    }
+
+    private static DoubleStream stream(double[] w, int from, int to, boolean parallel) {
+        DoubleStream s = Arrays.stream(w, from, to);
+        return parallel ? s.parallel() : s;
+    }
+
+    // Like IntPartition, for double
+    static class DoublePartition {
+        final double p;
+        double[] less = new double[16], greater = new double[16];
+        int lessCount = 0, equalCount = 0, greaterCount = 0;
+
+        DoublePartition(double p) { this.p = p; }
+
+        void accept(double x) {
+            if (less(x, p)) {
+                if (lessCount == less.length) less = Arrays.copyOf(less, 2*lessCount);
+                less[lessCount++] = x;
+            } else if (less(p, x)) {
+                if (greaterCount == greater.length) greater = Arrays.copyOf(greater, 2*greaterCount);
+                greater[greaterCount++] = x;
+            } else {
+                equalCount++;
+            }
+        }
+
+        void combine(DoublePartition other) {
+            less = append(less, lessCount, other.less, other.lessCount);
+            lessCount += other.lessCount;
+            equalCount += other.equalCount;
+            greater = append(greater, greaterCount, other.greater, other.greaterCount);
+            greaterCount += other.greaterCount;
+        }
+
+        private static double[] append(double[] a, int n, double[] b, int m) {
+            if (n+m > a.length) a = Arrays.copyOf(a, Math.max(n+m, 2*n));
+            System.arraycopy(b, 0, a, n, m);
+            return a;
+        }
+    }
+
+    // Comparator ordered T keys
+
+    public static <T> T quickSelectIt(T[] inp, Comparator<? super T> cmp) {
+        T w[] = Arrays.copyOf(inp, inp.length);
+        return select(w, w.length, w.length/2, cmp);
+    }
+
+    // Iterative quickSelect of rank target in w[0..n), reordering w
+    static <T> T select(T[] w, int n, int target, Comparator<? super T> cmp) {
+        int min=0, max=n;
+        do{
+            final long r = partition(w,min,max,cmp);
+            final int lt = TestQuickSelect.lt(r), gt = TestQuickSelect.gt(r);
+            if( gt <= target ) min=gt;
+            else if( lt > target ) max=lt;
+            else return w[target];
+        } while(true);
+    }
+
+    static <T> long partition(T[] w, int min, int max, Comparator<? super T> cmp) {
+        final T p = w[min + ThreadLocalRandom.current().nextInt(max-min)];
+        int lt=min, i=min, gt=max;
+        while(i < gt) {
+            final int c = cmp.compare(w[i], p);
+            if(c < 0) { T t=w[lt]; w[lt++]=w[i]; w[i++]=t; }
+            else if(c > 0) { T t=w[--gt]; w[gt]=w[i]; w[i]=t; }
+            else i++;
+        }
+        return (long)lt << 32 | gt;
+    }
+
+    public static <T> T quickCountItCompact(T[] in, Comparator<? super T> cmp) {
+        int target = in.length/2, n = in.length, round = 0;
+        final Object[][] bufs = new Object[2][];
+        final int[] counts = new int[threadCount], equals = new int[threadCount];
+        final int[] offsets = new int[threadCount];
+        T[] src = in;
+        do {
+            if (n <= CUTOFF) return select(Arrays.copyOf(src, n), n, target, cmp);
+            final T[] inp = src;
+            final int len = n, k = ThreadLocalRandom.current().nextInt(len), step = len/threadCount;
+            final T p = inp[k];
+
+            ArrayList<Callable<Void>> counters = new ArrayList<>();
+            for(int i=0;i<threadCount;i++) {
+                final int c = i, from = i*step, to = i==threadCount-1 ? len : i*step+step;
+                counters.add(() -> {
+                    int local = 0, equal = 0;
+                    for(int j= from; j<to; j++) {
+                        final int r = cmp.compare(inp[j], p);
+                        if(r < 0) local++; else if(r == 0) equal++;
+                    }
+                    counts[c] = local;
+                    equals[c] = equal;
+                    return null;
+                });
+            }
+            TestQuickSelect.invoke(counters);
+
+            int count = 0, equal = 0;
+            for(int c : counts) count += c;
+            for(int c : equals) equal += c;
+            if (count <= target && target < count+equal) return p;
+
+            final boolean tooLargeP = count > target;
+            int size = 0;
+            for(int i=0;i<threadCount;i++) {
+                final int from = i*step, to = i==threadCount-1 ? len : i*step+step;
+                offsets[i] = size;
+                size += tooLargeP ? counts[i] : (to-from)-counts[i]-equals[i];
+            }
+            final int b = round++ & 1;
+            if (bufs[b] == null) bufs[b] = newArray(in, size);
+            @SuppressWarnings("unchecked")
+            final T[] m = (T[])bufs[b];
+            ArrayList<Callable<Void>> compactors = new ArrayList<>();
+            for(int i=0;i<threadCount;i++) {
+                final int from = i*step, to = i==threadCount-1 ? len : i*step+step, offset = offsets[i];
+                compactors.add(() -> {
+                    int o = offset;
+                    if (tooLargeP) {
+                        for(int j= from; j<to; j++) if(cmp.compare(inp[j], p) < 0) m[o++]=inp[j];
+                    } else {
+                        for(int j= from; j<to; j++) if(cmp.compare(inp[j], p) > 0) m[o++]=inp[j];
+                    }
+                    return null;
+                });
+            }
+            TestQuickSelect.invoke(compactors);
+
+            if (!tooLargeP) target=target-count-equal;
+            src = m;
+            n = size;
+        } while( true );
+    }
+
+    public static <T> T quickCountStream(T[] inp, Comparator<? super T> cmp, boolean parallel) {
+        int target = inp.length/2;
+        T[] w = inp;
+        do {
+            final int n = w.length, k = ThreadLocalRandom.current().nextInt(n);
+            final T p = w[k];
+            Stream<T> s = Stream.concat(Arrays.stream(w,0,k), Arrays.stream(w,k+1,n));
+            Map<Integer, List<T>> res = (parallel ? s.parallel() : s)
+                .collect(Collectors.groupingBy(x -> Integer.signum(cmp.compare(x, p))));
+            List<T> smaller = res.getOrDefault(-1, List.of()), bigger = res.getOrDefault(1, List.of());
+            // Copies of p besides w[k]
+            final int equal = n-1-smaller.size()-bigger.size();
+            if (smaller.size() > target) w = smaller.toArray(Arrays.copyOf(w, 0));
+            else if (smaller.size()+equal < target) {
+                target=target-smaller.size()-equal-1;
+                w = bigger.toArray(Arrays.copyOf(w, 0));
+            } else return p;
+        } while( true );
+    }
+
+    private static Object[] newArray(Object[] like, int size) {
+        return (Object[])java.lang.reflect.Array.newInstance(like.getClass().getComponentType(), size);
+    }
+}
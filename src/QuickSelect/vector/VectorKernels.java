@@ -0,0 +1,59 @@
+import jdk.incubator.vector.*;
+
+// SelectKernels on the incubating Vector API. It lives in its own source
+// root so that a plain javac *.java in QuickSelect builds everything else.
+// Compile it after the rest, and run with the module, from QuickSelect:
+//   javac *.java
+//   javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorKernels.java
+//   java --add-modules jdk.incubator.vector TestQuickSelect ...
+// Nothing else refers to this class directly; SelectKernels.best() loads it
+// by name, so the rest of the selects build and run without the module.
+
+// Counting compares a whole vector with the pivot and adds the number of
+// set lanes in the mask, with no branch per element. Compaction stores a
+// whole vector at once when every lane survives, skips it when none does,
+// and otherwise copies out the set lanes of the mask one by one. JDK 17 has
+// no vector compress, which would make the mixed case branch free too.
+class VectorKernels implements SelectKernels {
+    private static final VectorSpecies<Integer> S = IntVector.SPECIES_PREFERRED;
+
+    public int countLess(int[] a, int from, int to, int p) {
+        final int bound = from + S.loopBound(to-from);
+        int count = 0, i = from;
+        for (; i<bound; i+=S.length())
+            count += IntVector.fromArray(S, a, i).lt(p).trueCount();
+        for (; i<to; i++) if (a[i] < p) count++;
+        return count;
+    }
+
+    public int countEqual(int[] a, int from, int to, int p) {
+        final int bound = from + S.loopBound(to-from);
+        int count = 0, i = from;
+        for (; i<bound; i+=S.length())
+            count += IntVector.fromArray(S, a, i).eq(p).trueCount();
+        for (; i<to; i++) if (a[i] == p) count++;
+        return count;
+    }
+
+    public int compact(int[] a, int from, int to, int p, boolean less, int[] out, int o) {
+        final int bound = from + S.loopBound(to-from), len = S.length();
+        int i = from;
+        for (; i<bound; i+=len) {
+            final IntVector v = IntVector.fromArray(S, a, i);
+            final VectorMask<Integer> m = less ? v.lt(p) : v.compare(VectorOperators.GT, p);
+            if (m.allTrue()) {
+                v.intoArray(out, o);
+                o += len;
+            } else if (m.anyTrue()) {
+                long bits = m.toLong();
+                while (bits != 0) {
+                    out[o++] = a[i + Long.numberOfTrailingZeros(bits)];
+                    bits &= bits-1;
+                }
+            }
+        }
+        return SCALAR.compact(a, i, to, p, less, out, o);
+    }
+
+    public String toString() { return "vector" + S.vectorBitSize(); }
+}
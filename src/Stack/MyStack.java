@@ -2,40 +2,309 @@ import java.lang.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
-public class MyStack<T> {
+import java.util.function.*;
+
+// The push/pop contract shared by the stacks below; pop returns null when
+// the stack is empty.
+interface ConcurrentStack<T> {
+    void push(T obj);
+    T pop();
+}
+
+// Each thread gets a home stripe, handed out round robin on its first push
+// or pop, so threads only share a stripe once there are more threads than
+// stripes. A pop that finds its home stripe empty steals half of the first
+// non-empty stripe after it, taken from the bottom: it returns the newest
+// of those and moves the rest to its home stripe, so its next pops are
+// local again instead of another scan.
+
+// The move holds the locks of both stripes, so an element is always in some
+// stripe, but it can still carry elements from a stripe a scan has yet to
+// look at to one it has passed, as can a push. Each stripe therefore counts
+// the elements put into it, and a scan that finds every stripe empty looks
+// at all of them once more: if none had any put in meanwhile, they were all
+// empty at once between the two looks, and pop may return null.
+public class MyStack<T> implements ConcurrentStack<T> {
     private final Object lock;
-    private final List<LinkedList<T>> stacks;
-    private static final int STRIPES = 32;
+    private final List<Stripe<T>> stacks;
+    private final int stripes;
+    private final AtomicInteger nextHome = new AtomicInteger();
+    private final ThreadLocal<Integer> home;
+    private final Stats stats; // null unless instrumented
 
+    // Two stripes per processor
     public MyStack(){
+        this(2*Runtime.getRuntime().availableProcessors());
+    }
+
+    public MyStack(int stripes){
+        this(stripes, false);
+    }
+
+    public MyStack(int stripes, boolean instrumented){
+        this.stripes = stripes;
         lock = new Object();
-        stacks = new ArrayList<LinkedList<T>>();
-        for(int i = 0; i < STRIPES; i++)
-            stacks.add(new LinkedList<T>());
+        stacks = new ArrayList<Stripe<T>>();
+        for(int i = 0; i < stripes; i++)
+            stacks.add(new Stripe<T>());
+        home = ThreadLocal.withInitial(() -> nextHome.getAndIncrement() % this.stripes);
+        stats = instrumented ? new Stats(stripes) : null;
     }
 
     public void push(T obj) {
-        int stripe = Thread.currentThread().hashCode()%STRIPES;
-        LinkedList<T> stack = stacks.get(stripe);
+        int stripe = home.get();
+        Stripe<T> stack = stacks.get(stripe);
+        long start = startTiming();
         synchronized(stack){
+            if (stats != null) stats.pushed(stripe, 1, start);
             stack.push(obj);
+            stack.inserts++;
         }
     }
 
     public T pop() {
-        int stripe = Thread.currentThread().hashCode()%STRIPES;
-        for (int i = stripe; i < stripe+STRIPES; i++){
-            LinkedList<T> stack = stacks.get(i%STRIPES);
-            synchronized(stack){
-                if(stack.size() == 0) continue;
-                return i == stripe ? stack.pop() : stack.removeLast();
+        int stripe = home.get();
+        Stripe<T> own = stacks.get(stripe);
+        long[] seen = new long[stripes];
+        while (true) {
+            long start = startTiming();
+            synchronized(own){
+                if (stats != null) stats.locked(stripe, start);
+                if(own.size() != 0) {
+                    if (stats != null) stats.popped(stripe, 1);
+                    return own.pop();
+                }
+                seen[stripe] = own.inserts;
+            }
+            for (int i = stripe+1; i < stripe+stripes; i++){
+                T obj = steal(i%stripes, stripe, seen);
+                if (obj != null) return obj;
             }
+            if (unchanged(seen)) break;
         }
+        if (stats != null) stats.emptyPops.increment();
         return null;
     }
 
+    // Whether no stripe has had elements put in since seen was taken
+    private boolean unchanged(long[] seen) {
+        for (int i = 0; i < stripes; i++){
+            Stripe<T> stack = stacks.get(i);
+            synchronized(stack){
+                if (stack.inserts != seen[i]) return false;
+            }
+        }
+        return true;
+    }
+
+    // Pushes all of objs onto the home stripe under one lock, in
+    // iteration order, so the last one is popped first
+    public void pushAll(Collection<? extends T> objs) {
+        int stripe = home.get();
+        Stripe<T> stack = stacks.get(stripe);
+        long start = startTiming();
+        synchronized(stack){
+            if (stats != null) stats.pushed(stripe, objs.size(), start);
+            for (T obj : objs) stack.push(obj);
+            stack.inserts += objs.size();
+        }
+    }
+
+    // Pops up to max elements into consumer and returns how many. Takes
+    // from the top of the home stripe first and, only once that runs dry,
+    // from the bottom of the others, locking each stripe once. Like
+    // BlockingQueue.drainTo, consumer runs under the stripe's lock, so it
+    // must not use this stack.
+    public int popBatch(int max, Consumer<? super T> consumer) {
+        int stripe = home.get(), n = 0;
+        for (int i = stripe; i < stripe+stripes && n < max; i++){
+            Stripe<T> stack = stacks.get(i%stripes);
+            long start = startTiming();
+            synchronized(stack){
+                if (stats != null) stats.locked(i%stripes, start);
+                int before = n;
+                for (; n < max && stack.size() != 0; n++)
+                    consumer.accept(i == stripe ? stack.pop() : stack.removeLast());
+                if (stats != null) stats.popped(i%stripes, n-before);
+            }
+        }
+        return n;
+    }
+
+    // Pops up to dst.length elements into dst[0..), as popBatch does, and
+    // returns how many
+    public int popInto(T[] dst) {
+        int[] n = { 0 };
+        return popBatch(dst.length, x -> dst[n[0]++] = x);
+    }
+
+    // Takes the bottom half, rounded up, of stripe victim, returning the
+    // newest of those and moving the rest, oldest first, onto stripe home.
+    // If victim is empty, records its inserts in seen and returns null.
+    // Both stripes are locked, in index order so that two thieves cannot
+    // deadlock.
+    private T steal(int victim, int home, long[] seen) {
+        Stripe<T> stack = stacks.get(victim), own = stacks.get(home);
+        long start = startTiming();
+        synchronized(victim < home ? stack : own){
+            synchronized(victim < home ? own : stack){
+                if (stats != null) stats.locked(victim, start);
+                int n = (stack.size()+1)/2;
+                if (stats != null) stats.stole(victim, n);
+                if (n == 0) {
+                    seen[victim] = stack.inserts;
+                    return null;
+                }
+                for (int j = 0; j < n-1; j++) own.push(stack.removeLast());
+                own.inserts += n-1;
+                return stack.removeLast();
+            }
+        }
+    }
+
+    // A stripe and the number of elements ever put into it, guarded by the
+    // stripe's own lock
+    @SuppressWarnings("serial")
+    private static class Stripe<T> extends LinkedList<T> {
+        long inserts;
+    }
+
+    // Lock waits are timed on one acquisition in Stats.SAMPLE, since
+    // nanoTime costs about as much as an uncontended lock
+    private long startTiming() {
+        return stats != null && ThreadLocalRandom.current().nextInt(Stats.SAMPLE) == 0
+            ? System.nanoTime() : 0;
+    }
+
+    // Counters of an instrumented stack, or null
+    public Snapshot stats() {
+        return stats == null ? null : stats.snapshot(stacks);
+    }
+
+    // Registers this stack's counters with the platform MBean server as
+    // MyStack:name=<name>
+    public void registerMXBean(String name) throws Exception {
+        if (stats == null) throw new IllegalStateException("stack is not instrumented");
+        java.lang.management.ManagementFactory.getPlatformMBeanServer().registerMBean(
+            new StatsBean(), new javax.management.ObjectName("MyStack:name=" + name));
+    }
+
+    // Counters kept cheap enough to leave on. Per-stripe counts live in
+    // one object per stripe, written only under that stripe's lock, so
+    // they need no atomics and stripes do not share them; the counts not
+    // tied to a lock are LongAdders. Lock waits go in a histogram whose
+    // bucket b counts sampled waits of [2^(b-1), 2^b) ns.
+    private static class Stats {
+        static final int SAMPLE = 64, BUCKETS = 32;
+        final StripeStats[] stripes;
+        final LongAdder emptyPops = new LongAdder();
+
+        static class StripeStats {
+            long pushes, pops, stealAttempts, steals, stolen;
+            final long[] lockWaits = new long[BUCKETS];
+        }
+
+        Stats(int n) {
+            stripes = new StripeStats[n];
+            for (int i = 0; i < n; i++) stripes[i] = new StripeStats();
+        }
+
+        // The methods below assume stripe's lock is held
+        void locked(int stripe, long start) {
+            if (start == 0) return;
+            final long ns = System.nanoTime()-start;
+            stripes[stripe].lockWaits[Math.min(BUCKETS-1, 64-Long.numberOfLeadingZeros(ns))]++;
+        }
+
+        void pushed(int stripe, int n, long start) {
+            locked(stripe, start);
+            stripes[stripe].pushes += n;
+        }
+
+        void popped(int stripe, int n) {
+            stripes[stripe].pops += n;
+        }
+
+        // A thief took n elements from victim, or found it empty if n is 0
+        void stole(int victim, int n) {
+            final StripeStats s = stripes[victim];
+            s.stealAttempts++;
+            if (n == 0) return;
+            s.steals++;
+            s.stolen += n;
+            s.pops++; // the one the thief returns; it moves the rest
+        }
+
+        <T> Snapshot snapshot(List<? extends List<T>> stacks) {
+            final Snapshot snap = new Snapshot(stripes.length);
+            for (int i = 0; i < stripes.length; i++) {
+                synchronized(stacks.get(i)) {
+                    final StripeStats s = stripes[i];
+                    snap.stripePushes[i] = s.pushes;
+                    snap.stripePops[i] = s.pops;
+                    snap.stealAttempts += s.stealAttempts;
+                    snap.steals += s.steals;
+                    snap.stolen += s.stolen;
+                    for (int b = 0; b < BUCKETS; b++) snap.lockWaits[b] += s.lockWaits[b];
+                }
+            }
+            snap.emptyPops = emptyPops.sum();
+            return snap;
+        }
+    }
+
+    // The counters of an instrumented stack at one moment; each stripe is
+    // read under its lock, so a stripe's counts agree with each other.
+    // A steal counts as one pop of the victim; the other stolen elements
+    // count when popped from the thief's stripe, so totals match calls.
+    public static class Snapshot {
+        public final long[] stripePushes, stripePops;
+        public final long[] lockWaits = new long[Stats.BUCKETS];
+        public long stealAttempts, steals, stolen, emptyPops;
+
+        Snapshot(int stripes) {
+            stripePushes = new long[stripes];
+            stripePops = new long[stripes];
+        }
+
+        public long pushes() { return Arrays.stream(stripePushes).sum(); }
+        public long pops() { return Arrays.stream(stripePops).sum(); }
+
+        public String toString() {
+            return String.format("pushes %d, pops %d, steals %d/%d (%d elements), empty pops %d%n"
+                    + "  stripe pushes %s%n  lock waits (log2 ns) %s",
+                    pushes(), pops(), steals, stealAttempts, stolen, emptyPops,
+                    Arrays.toString(stripePushes), Arrays.toString(lockWaits));
+        }
+    }
+
+    // MXBean view of stats(); every getter takes a fresh snapshot
+    public interface StatsMXBean {
+        long getPushes();
+        long getPops();
+        long getStealAttempts();
+        long getSteals();
+        long getStolen();
+        long getEmptyPops();
+        long[] getStripePushes();
+        long[] getStripePops();
+        long[] getLockWaitHistogram();
+    }
+
+    private class StatsBean implements StatsMXBean {
+        public long getPushes() { return stats().pushes(); }
+        public long getPops() { return stats().pops(); }
+        public long getStealAttempts() { return stats().stealAttempts; }
+        public long getSteals() { return stats().steals; }
+        public long getStolen() { return stats().stolen; }
+        public long getEmptyPops() { return stats().emptyPops; }
+        public long[] getStripePushes() { return stats().stripePushes; }
+        public long[] getStripePops() { return stats().stripePops; }
+        public long[] getLockWaitHistogram() { return stats().lockWaits; }
+    }
+
     public static void concurrentTest(final int size, final int threads,  
-            MyStack<Integer> stack) throws Exception {
+            ConcurrentStack<Integer> stack) throws Exception {
         final CyclicBarrier startBarrier = new CyclicBarrier(threads+1), 
               stopBarrier = startBarrier;
 
@@ -74,7 +343,93 @@ public class MyStack<T> {
         else  System.out.println("Concurrency doesn't work :(");
     }
 
-    public static void testOrder(int n, MyStack<Integer> stack){
+    // concurrentTest with each thread pushing its numbers batch at a time
+    // through pushAll and popping them back through popInto
+    public static void batchTest(final int size, final int threads, final int batch,
+            MyStack<Integer> stack) throws Exception {
+        final CyclicBarrier startBarrier = new CyclicBarrier(threads+1), 
+              stopBarrier = startBarrier;
+
+        final int range = size/threads;
+        for (int i = 0; i < threads; ++i) {
+            final int nr = i;
+            Thread ti = new Thread(new Runnable() { public void run() {
+                try { startBarrier.await(); } catch (Exception exn) { }
+                    List<Integer> items = new ArrayList<Integer>(batch);
+                    for(int j = range*nr; j<range*nr+range; j+=batch) {
+                        items.clear();
+                        for (int k = j; k < Math.min(j+batch, range*nr+range); k++) items.add(k);
+                        stack.pushAll(items);
+                    }
+                try { stopBarrier.await(); } catch (Exception exn) { }
+            }});
+            ti.start();
+        }
+        startBarrier.await();
+        stopBarrier.await();
+        startBarrier.reset();
+        stopBarrier.reset();
+
+        final Set<Integer> pops = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < threads; ++i) {
+            Thread ti = new Thread(new Runnable() { public void run() {
+                try { startBarrier.await(); } catch (Exception exn) { }
+                    Integer[] items = new Integer[batch];
+                    for(int left = range; left > 0; ) {
+                        Integer[] dst = left < batch ? new Integer[left] : items;
+                        int n = stack.popInto(dst);
+                        if (n == 0) break;
+                        for (int k = 0; k < n; k++) pops.add(dst[k]);
+                        left -= n;
+                    }
+                try { stopBarrier.await(); } catch (Exception exn) { }
+            }});
+            ti.start();
+        }
+
+        startBarrier.await();
+        stopBarrier.await();
+
+        if (pops.size() == range*threads && stack.pop() == null) 
+            System.out.println("Batches work :)");
+        else  System.out.println("Batches don't work :(");
+    }
+
+    // Every thread alternates pushing one of its own numbers and popping,
+    // the mix under which elimination pays off; afterwards the numbers
+    // popped and those left on the stack must be exactly those pushed.
+    public static void mixedTest(final int size, final int threads,
+            ConcurrentStack<Integer> stack) throws Exception {
+        final CyclicBarrier startBarrier = new CyclicBarrier(threads+1), 
+              stopBarrier = startBarrier;
+        final Set<Integer> pops = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean duplicates = new AtomicBoolean(false);
+        final int range = size/threads;
+        for (int i = 0; i < threads; ++i) {
+            final int nr = i;
+            Thread ti = new Thread(new Runnable() { public void run() {
+                try { startBarrier.await(); } catch (Exception exn) { }
+                    for(int j = range*nr; j<range*nr+range; j++) {
+                        stack.push(j);
+                        Integer x = stack.pop();
+                        if (x != null && !pops.add(x)) duplicates.set(true);
+                    }
+                try { stopBarrier.await(); } catch (Exception exn) { }
+            }});
+            ti.start();
+        }
+        startBarrier.await();
+        stopBarrier.await();
+        Integer x;
+        while ((x = stack.pop()) != null)
+            if (!pops.add(x)) duplicates.set(true);
+
+        if (pops.size() == range*threads && !duplicates.get()) 
+            System.out.println("Mixed push/pop works :)");
+        else System.out.println("Mixed push/pop doesn't work :(");
+    }
+
+    public static void testOrder(int n, ConcurrentStack<Integer> stack){
         final AtomicBoolean working = new AtomicBoolean(true);
         Thread A = new Thread(new Runnable() { public void run() {
             for(int i=0; i<n; i++) stack.push(i);
@@ -96,13 +451,482 @@ public class MyStack<T> {
     public static void main(String[] args){
         int size = 10_000_000;
         int threads = 32;
-        MyStack<Integer> stack = new MyStack<Integer>();
-        testOrder(size, stack);
+        // Each test gets a fresh stack, so leftovers from one test cannot
+        // make the next one fail
+        List<Supplier<ConcurrentStack<Integer>>> stacks = new ArrayList<>();
+        stacks.add(() -> new MyStack<Integer>());
+        stacks.add(() -> new EliminationStack<Integer>(threads/2));
+        for (Supplier<ConcurrentStack<Integer>> stack : stacks) {
+            System.out.println(stack.get().getClass().getName());
+            testOrder(size, stack.get());
+            try {
+                long start = System.nanoTime();
+                concurrentTest(size, threads, stack.get());
+                System.out.printf("  push then pop: %.3f s%n", (System.nanoTime()-start)/1e9);
+                start = System.nanoTime();
+                mixedTest(size, threads, stack.get());
+                System.out.printf("  mixed push/pop: %.3f s%n", (System.nanoTime()-start)/1e9);
+            } catch (Exception e){
+                System.out.println("Concurrent test died >:(");
+            }
+        }
         try {
-            concurrentTest(size, threads, stack);
+            long start = System.nanoTime();
+            BoundedStack.blockingTest(size/10, threads, 1024);
+            System.out.printf("  bounded put/take: %.3f s%n", (System.nanoTime()-start)/1e9);
         } catch (Exception e){
-            System.out.println("Concurrent test died >:(");
+            System.out.println("Blocking test died >:(");
+        }
+        // The cost of leaving the counters on
+        try {
+            for (int round = 0; round < 2; round++)
+                for (boolean instrumented : new boolean[] { false, true }) {
+                    MyStack<Integer> stack = new MyStack<Integer>(
+                        2*Runtime.getRuntime().availableProcessors(), instrumented);
+                    long start = System.nanoTime();
+                    concurrentTest(size, threads, stack);
+                    System.out.printf("  %s: %.3f s%n", instrumented ? "instrumented" : "plain",
+                            (System.nanoTime()-start)/1e9);
+                    if (instrumented && round == 1) System.out.println("  " + stack.stats());
+                }
+        } catch (Exception e){
+            System.out.println("Instrumented test died >:(");
+        }
+        // Element at a time against batches, both through the same set
+        try {
+            for (int batch : new int[] { 1, 16, 256 }) {
+                long start = System.nanoTime();
+                if (batch == 1) concurrentTest(size, threads, new MyStack<Integer>());
+                else batchTest(size, threads, batch, new MyStack<Integer>());
+                System.out.printf("  batch %3d: %.1f Mitems/s%n", batch,
+                        2*size/((System.nanoTime()-start)/1e3));
+            }
+        } catch (Exception e){
+            System.out.println("Batch test died >:(");
+        }
+        System.exit(0);
+    }
+}
+
+// MyStack holding at most capacity elements, with blocking, timed and
+// asynchronous variants of push and pop. Two semaphores count free slots
+// and elements, so waiting parks on the semaphore rather than spinning,
+// and the stripes stay the only locks; a thread holding an element permit
+// is guaranteed an element somewhere in the stripes. popAsync registers a
+// future instead of parking a thread, and every insert that finds futures
+// waiting completes them, so thousands of consumers cost no threads.
+class BoundedStack<T> extends MyStack<T> {
+    private final Semaphore slots, items = new Semaphore(0);
+    private final Queue<CompletableFuture<T>> waiters = new ConcurrentLinkedQueue<>();
+
+    public BoundedStack(int capacity) {
+        this(2*Runtime.getRuntime().availableProcessors(), capacity);
+    }
+
+    public BoundedStack(int stripes, int capacity) {
+        super(stripes);
+        slots = new Semaphore(capacity);
+    }
+
+    // Throws IllegalStateException when full, as Queue.add does
+    public void push(T obj) {
+        if (!offer(obj)) throw new IllegalStateException("stack full");
+    }
+
+    public boolean offer(T obj) {
+        if (obj == null) throw new NullPointerException("null means empty to pop");
+        if (!slots.tryAcquire()) return false;
+        insert(obj);
+        return true;
+    }
+
+    public boolean offer(T obj, long timeout, TimeUnit unit) throws InterruptedException {
+        if (obj == null) throw new NullPointerException("null means empty to pop");
+        if (!slots.tryAcquire(timeout, unit)) return false;
+        insert(obj);
+        return true;
+    }
+
+    // Waits for a free slot
+    public void put(T obj) throws InterruptedException {
+        if (obj == null) throw new NullPointerException("null means empty to pop");
+        slots.acquire();
+        insert(obj);
+    }
+
+    // Throws IllegalStateException, pushing nothing, unless all of objs fit
+    public void pushAll(Collection<? extends T> objs) {
+        for (T obj : objs) Objects.requireNonNull(obj, "null means empty to pop");
+        final int n = objs.size();
+        if (!slots.tryAcquire(n)) throw new IllegalStateException("stack full");
+        super.pushAll(objs);
+        items.release(n);
+        if (!waiters.isEmpty()) serve();
+    }
+
+    public T pop() {
+        return items.tryAcquire() ? claim() : null;
+    }
+
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return items.tryAcquire(timeout, unit) ? claim() : null;
+    }
+
+    // Waits for an element
+    public T take() throws InterruptedException {
+        items.acquire();
+        return claim();
+    }
+
+    public int popBatch(int max, Consumer<? super T> consumer) {
+        int k;
+        do {
+            k = Math.min(max, items.availablePermits());
+            if (k <= 0) return 0;
+        } while (!items.tryAcquire(k));
+        // A batch can miss elements a concurrent steal or push moved past
+        // it; pop cannot, so it makes up the rest
+        for (int n = super.popBatch(k, consumer); n < k; n++)
+            consumer.accept(remove());
+        slots.release(k);
+        return k;
+    }
+
+    // Completes with the next element; cancelling the future gives up the
+    // claim without losing an element
+    public CompletableFuture<T> popAsync() {
+        if (items.tryAcquire()) return CompletableFuture.completedFuture(claim());
+        final CompletableFuture<T> f = new CompletableFuture<T>();
+        waiters.add(f);
+        serve(); // an insert may have missed f
+        return f;
+    }
+
+    private void insert(T obj) {
+        super.push(obj);
+        items.release();
+        if (!waiters.isEmpty()) serve();
+    }
+
+    // Hands elements to waiting futures while there are both. Every insert
+    // and every new future calls this after publishing itself, so neither
+    // can be left waiting for the other.
+    private void serve() {
+        while (!waiters.isEmpty() && items.tryAcquire()) {
+            final CompletableFuture<T> f = waiters.poll();
+            if (f == null) { items.release(); continue; }
+            final T obj = remove();
+            if (f.complete(obj)) slots.release();
+            else { // cancelled
+                super.push(obj);
+                items.release();
+            }
+        }
+    }
+
+    // The element an acquired item permit stands for, freeing its slot
+    private T claim() {
+        final T obj = remove();
+        slots.release();
+        return obj;
+    }
+
+    // The element an item permit stands for. There is one in the stripes
+    // for every permit held, and pop only returns null when there are none
+    // at some moment, so it finds one.
+    private T remove() {
+        final T obj = super.pop();
+        if (obj == null) throw new IllegalStateException("no element for an item permit");
+        return obj;
+    }
+
+    // Producers put, and consumers alternately take and wait on popAsync,
+    // every number 0..size-1 through a stack of the given capacity; every
+    // number must arrive once. Then checks offer on a full stack and poll
+    // on an empty one both give up after their timeout.
+    public static void blockingTest(final int size, final int threads, final int capacity)
+            throws Exception {
+        final BoundedStack<Integer> stack = new BoundedStack<Integer>(capacity);
+        final CyclicBarrier startBarrier = new CyclicBarrier(2*threads+1),
+              stopBarrier = startBarrier;
+        final AtomicIntegerArray seen = new AtomicIntegerArray(size);
+        final AtomicBoolean works = new AtomicBoolean(true);
+        final int range = size/threads;
+        for (int i = 0; i < threads; ++i) {
+            final int nr = i;
+            new Thread(() -> {
+                try {
+                    startBarrier.await();
+                    for(int j = range*nr; j<range*nr+range; j++) stack.put(j);
+                    stopBarrier.await();
+                } catch (Exception exn) { works.set(false); }
+            }).start();
+            new Thread(() -> {
+                try {
+                    startBarrier.await();
+                    for(int j = 0; j < range; j++) {
+                        int x = j%2 == 0 ? stack.take() : stack.popAsync().get();
+                        if (seen.getAndIncrement(x) != 0) works.set(false);
+                    }
+                    stopBarrier.await();
+                } catch (Exception exn) { works.set(false); }
+            }).start();
+        }
+        startBarrier.await();
+        stopBarrier.await();
+        if (stack.pop() != null) works.set(false);
+        for (int i = 0; i < capacity; i++) stack.push(i);
+        if (stack.offer(-1, 10, TimeUnit.MILLISECONDS)) works.set(false);
+        while (stack.pop() != null) { }
+        if (stack.poll(10, TimeUnit.MILLISECONDS) != null) works.set(false);
+        if (works.get()) System.out.println("Blocking works :)");
+        else System.out.println("Blocking doesn't work :(");
+    }
+}
+
+// Lock-free Treiber stack with an elimination array, after Herlihy and
+// Shavit. push and pop CAS the top; when that CAS fails under contention
+// the thread visits a random slot of the elimination array instead, where
+// a push meeting a pop hands its item straight over, and both return
+// without ever touching top. Meetings of two pushes or two pops, and
+// visits that time out, go back to trying top.
+class EliminationStack<T> implements ConcurrentStack<T> {
+    private static final long TIMEOUT = 2_000; // ns spent waiting in a slot
+    private static final Object TIMED_OUT = new Object();
+    private final AtomicReference<Node<T>> top = new AtomicReference<>();
+    private final Exchanger[] elimination;
+
+    public EliminationStack(int width) {
+        elimination = new Exchanger[width];
+        for (int i = 0; i < width; i++)
+            elimination[i] = new Exchanger();
+    }
+
+    public void push(T obj) {
+        if (obj == null) throw new NullPointerException("null means empty to pop");
+        final Node<T> node = new Node<T>(obj);
+        while (true) {
+            Node<T> old = top.get();
+            node.next = old;
+            if (top.compareAndSet(old, node)) return;
+            if (visit(obj) == null) return; // met a pop
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public T pop() {
+        while (true) {
+            Node<T> old = top.get();
+            if (old == null) return null;
+            if (top.compareAndSet(old, old.next)) return old.item;
+            Object other = visit(null);
+            if (other != TIMED_OUT && other != null) return (T)other; // met a push
+        }
+    }
+
+    private Object visit(Object mine) {
+        int slot = ThreadLocalRandom.current().nextInt(elimination.length);
+        return elimination[slot].exchange(mine, TIMEOUT);
+    }
+
+    private static class Node<T> {
+        final T item;
+        Node<T> next;
+        Node(T item) { this.item = item; }
+    }
+
+    // A slot where two threads swap items. The first to arrive parks its
+    // item with stamp WAITING and spins; the second takes it, leaves its own
+    // with stamp BUSY and leaves; the first then sees BUSY, takes the item
+    // and resets the slot to EMPTY.
+    private static class Exchanger {
+        private static final int EMPTY = 0, WAITING = 1, BUSY = 2;
+        private final AtomicStampedReference<Object> slot =
+            new AtomicStampedReference<Object>(null, EMPTY);
+
+        // The other thread's item, or TIMED_OUT if none arrived in time
+        Object exchange(Object mine, long timeout) {
+            final long deadline = System.nanoTime() + timeout;
+            final int[] stamp = { EMPTY };
+            while (System.nanoTime() < deadline) {
+                Object theirs = slot.get(stamp);
+                switch (stamp[0]) {
+                case EMPTY:
+                    if (slot.compareAndSet(theirs, mine, EMPTY, WAITING)) {
+                        while (System.nanoTime() < deadline) {
+                            theirs = slot.get(stamp);
+                            if (stamp[0] == BUSY) {
+                                slot.set(null, EMPTY);
+                                return theirs;
+                            }
+                            Thread.onSpinWait();
+                        }
+                        if (slot.compareAndSet(mine, null, WAITING, EMPTY))
+                            return TIMED_OUT;
+                        // Someone arrived just as we gave up
+                        theirs = slot.get(stamp);
+                        slot.set(null, EMPTY);
+                        return theirs;
+                    }
+                    break;
+                case WAITING:
+                    if (slot.compareAndSet(theirs, mine, WAITING, BUSY))
+                        return theirs;
+                    break;
+                default: // BUSY, two others are finishing
+                    break;
+                }
+            }
+            return TIMED_OUT;
         }
+    }
+}
+
+// MyStack specialised to int: each stripe keeps its elements in one
+// growable int[] instead of a LinkedList of boxed Integers, so an element
+// costs 4 bytes (8 just after a doubling) rather than a 24 byte list node
+// plus a 16 byte Integer, and pushing allocates nothing until a stripe
+// outgrows its array. A thread pushes to and pops from the top of the
+// stripe its hash picks, and steals single elements from the bottom of the
+// others, so a stripe is a deque over items[base..top).
+class IntStack {
+    private final Stripe[] stripes;
+    private static final int STRIPES = 32;
+
+    private static class Stripe {
+        int[] items = new int[16];
+        int base = 0, top = 0;
+
+        // Assumes the stripe is locked
+        void push(int x) {
+            if (top == items.length) {
+                final int size = top-base;
+                if (base > 0 && size <= items.length/2)
+                    System.arraycopy(items, base, items, 0, size);
+                else
+                    items = Arrays.copyOfRange(items, base, base+2*items.length);
+                base = 0;
+                top = size;
+            }
+            items[top++] = x;
+        }
+    }
+
+    public IntStack() {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+    }
+
+    public void push(int x) {
+        Stripe stack = stripes[Thread.currentThread().hashCode()%STRIPES];
+        synchronized(stack){
+            stack.push(x);
+        }
+    }
+
+    // The top of this thread's stripe, else the bottom of the next non-empty
+    // one, else ifEmpty
+    public int pop(int ifEmpty) {
+        int stripe = Thread.currentThread().hashCode()%STRIPES;
+        for (int i = stripe; i < stripe+STRIPES; i++){
+            Stripe stack = stripes[i%STRIPES];
+            synchronized(stack){
+                if (stack.top == stack.base) continue;
+                int x = i == stripe ? stack.items[--stack.top] : stack.items[stack.base++];
+                if (stack.top == stack.base) stack.top = stack.base = 0;
+                return x;
+            }
+        }
+        return ifEmpty;
+    }
+
+    // concurrentTest without boxing: pushes 0..size-1 from threads threads,
+    // pops size times and checks every number came back exactly once.
+    public static void concurrentTest(final int size, final int threads,
+            IntStack stack) throws Exception {
+        final CyclicBarrier startBarrier = new CyclicBarrier(threads+1),
+              stopBarrier = startBarrier;
+        final int range = size/threads;
+        final AtomicIntegerArray seen = new AtomicIntegerArray(range*threads);
+        final AtomicBoolean works = new AtomicBoolean(true);
+        for (int pass = 0; pass < 2; pass++) {
+            final boolean pushing = pass == 0;
+            for (int i = 0; i < threads; ++i) {
+                final int nr = i;
+                Thread ti = new Thread(new Runnable() { public void run() {
+                    try { startBarrier.await(); } catch (Exception exn) { }
+                        for(int j = range*nr; j<range*nr+range; j++) {
+                            if (pushing) stack.push(j);
+                            else {
+                                int x = stack.pop(-1);
+                                if (x < 0 || seen.getAndIncrement(x) != 0) works.set(false);
+                            }
+                        }
+                    try { stopBarrier.await(); } catch (Exception exn) { }
+                }});
+                ti.start();
+            }
+            startBarrier.await();
+            stopBarrier.await();
+            startBarrier.reset();
+            stopBarrier.reset();
+        }
+        if (works.get() && stack.pop(-1) == -1) System.out.println("Concurrency works :)");
+        else System.out.println("Concurrency doesn't work :(");
+    }
+
+    // Heap bytes per element of a MyStack<Integer> and an IntStack holding
+    // n elements, then the time to push and pop size elements on each
+    public static void main(String[] args) throws Exception {
+        final int n = 1_000_000, size = 10_000_000, threads = 32;
+        long before = usedHeap();
+        MyStack<Integer> boxed = new MyStack<Integer>();
+        for (int i = 0; i < n; i++) boxed.push(i);
+        System.out.printf("MyStack<Integer> %8.1f bytes/element%n", (usedHeap()-before)/(double)n);
+        boxed = null;
+        before = usedHeap();
+        IntStack ints = new IntStack();
+        for (int i = 0; i < n; i++) ints.push(i);
+        System.out.printf("IntStack         %8.1f bytes/element%n", (usedHeap()-before)/(double)n);
+        ints = null;
+
+        concurrentTest(size, threads, new IntStack());
+        final MyStack<Integer> generic = new MyStack<Integer>();
+        throughput("MyStack<Integer>", size, threads, x -> generic.push(x), () -> generic.pop());
+        final IntStack primitive = new IntStack();
+        throughput("IntStack", size, threads, primitive::push, () -> primitive.pop(-1));
         System.exit(0);
     }
+
+    // Pushes then pops size elements split over threads threads, printing
+    // million operations per second for each phase
+    private static void throughput(String name, int size, int threads,
+            IntConsumer push, IntSupplier pop) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(threads+1);
+        final int range = size/threads;
+        for (int pass = 0; pass < 2; pass++) {
+            final boolean pushing = pass == 0;
+            for (int i = 0; i < threads; ++i) {
+                final int nr = i;
+                new Thread(() -> {
+                    try { barrier.await(); } catch (Exception exn) { }
+                    for(int j = range*nr; j<range*nr+range; j++)
+                        if (pushing) push.accept(j); else pop.getAsInt();
+                    try { barrier.await(); } catch (Exception exn) { }
+                }).start();
+            }
+            barrier.await();
+            long start = System.nanoTime();
+            barrier.await();
+            System.out.printf("%-16s %-4s %8.1f Mops/s%n", name, pushing ? "push" : "pop",
+                    range*threads/((System.nanoTime()-start)/1e3));
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory()-rt.freeMemory();
+    }
 }
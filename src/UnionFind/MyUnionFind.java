@@ -1,5 +1,11 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.concurrent.atomic.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 import java.util.*;
 
 public class MyUnionFind {
@@ -10,6 +16,59 @@ public class MyUnionFind {
             test.sequential(new FineUnionFind(5));
             test.concurrent(itemCount, new FineUnionFind(itemCount));
             test.deadlock(itemCount, new FineUnionFind(itemCount));
+            test.online(itemCount, new FineUnionFind(itemCount));
+        }
+        {   // Lock-free union-find
+            UnionFindTest test = new UnionFindTest();
+            test.sequential(new CasUnionFind(5));
+            test.concurrent(itemCount, new CasUnionFind(itemCount));
+            test.deadlock(itemCount, new CasUnionFind(itemCount));
+            test.online(itemCount, new CasUnionFind(itemCount));
+        }
+        {   // Flat array union-find
+            UnionFindTest test = new UnionFindTest();
+            test.sequential(new CompactUnionFind(5));
+            test.concurrent(itemCount, new CompactUnionFind(itemCount));
+            test.deadlock(itemCount, new CompactUnionFind(itemCount));
+            test.online(itemCount, new CompactUnionFind(itemCount));
+        }
+        {   // Fine-locking union-find with path halving
+            UnionFindTest test = new UnionFindTest();
+            test.sequential(new HalvingFineUnionFind(5));
+            test.concurrent(itemCount, new HalvingFineUnionFind(itemCount));
+            test.deadlock(itemCount, new HalvingFineUnionFind(itemCount));
+            test.online(itemCount, new HalvingFineUnionFind(itemCount));
+            test.deepSameSet(1 << 20, new FineUnionFind(1 << 20));
+            test.deepSameSet(1 << 20, new HalvingFineUnionFind(1 << 20));
+        }
+        {   // Growable union-find
+            UnionFindTest test = new UnionFindTest();
+            test.sequential(new GrowableUnionFind(5));
+            test.concurrent(itemCount, new GrowableUnionFind(itemCount));
+            test.deadlock(itemCount, new GrowableUnionFind(itemCount));
+            test.online(itemCount, new GrowableUnionFind(itemCount));
+            test.growing(itemCount*10, new GrowableUnionFind());
+        }
+        {   // Union-find in a memory-mapped file
+            UnionFindTest test = new UnionFindTest();
+            Path dir = Files.createTempDirectory("unionfind");
+            try {
+                test.sequential(MappedUnionFind.create(dir.resolve("seq"), 5));
+                test.concurrent(itemCount, MappedUnionFind.create(dir.resolve("conc"), itemCount));
+                test.deadlock(itemCount, MappedUnionFind.create(dir.resolve("dead"), itemCount));
+                test.online(itemCount, MappedUnionFind.create(dir.resolve("online"), itemCount));
+                test.checkpoint(1 << 20, dir.resolve("checkpoint"));
+            } finally {
+                // Not on exit: the BogusFineUnionFind tests below may hang
+                for (File file : dir.toFile().listFiles())
+                    Files.delete(file.toPath());
+                Files.delete(dir);
+            }
+        }
+        {   // Connected components of edge lists
+            UnionFindTest test = new UnionFindTest();
+            test.components(itemCount, new ConnectedComponents(itemCount, ForkJoinPool.commonPool()));
+            ConnectedComponents.scaling(1 << 20, 1 << 22);
         }
         {   // Question 4.3
             UnionFindTest test = new UnionFindTest();
@@ -24,6 +83,19 @@ interface UnionFind {
     int find(int x);
     void union(int x, int y);
     boolean sameSet(int x, int y);
+    // Number of sets
+    int componentCount();
+}
+
+// Union-find that keeps each set's size and members as it unions, so these
+// cost O(1) and O(size of the set). Only the lock based ones do: the
+// lock-free ones link with a single CAS, which cannot also add the sizes or
+// splice the member lists atomically with the link.
+interface SizedUnionFind extends UnionFind {
+    // Number of elements in x's set
+    int size(int x);
+    // Calls action once for every element of x's set
+    void forEachMember(int x, IntConsumer action);
 }
 
 // Test of union-find data structures, adapted from Florian Biermann's
@@ -108,6 +180,175 @@ class UnionFindTest extends Tests {
             assertEquals(uf.find(i), root);
         System.out.println("passed");
     }
+    // After 32 threads union random pairs, componentCount, and for a
+    // SizedUnionFind size and forEachMember, must agree with what find
+    // says the sets are
+    public void online(final int size, final UnionFind uf) throws Exception {
+        System.out.printf("Testing %s ... ", uf.getClass());
+        final int threadCount = 32;
+        final CyclicBarrier startBarrier = new CyclicBarrier(threadCount+1), 
+              stopBarrier = startBarrier;
+        for (int i = 0; i < threadCount; ++i) {
+            final int seed = i;
+            Thread ti = new Thread(new Runnable() { public void run() {
+                Random rnd = new Random(seed);
+                try { startBarrier.await(); } catch (Exception exn) { }
+                for (int j = 0; j < size/threadCount/2; ++j) 
+                    uf.union(rnd.nextInt(size), rnd.nextInt(size));
+                try { stopBarrier.await(); } catch (Exception exn) { }
+            }});
+            ti.start();
+        }
+        startBarrier.await();
+        stopBarrier.await();
+        final int[] count = new int[size];
+        int roots = 0;
+        for (int x = 0; x < size; ++x) 
+            if (count[uf.find(x)]++ == 0) roots++;
+        assertEquals(uf.componentCount(), roots);
+        if (uf instanceof SizedUnionFind) {
+            final SizedUnionFind suf = (SizedUnionFind)uf;
+            final boolean[] seen = new boolean[size];
+            for (int x = 0; x < size; ++x) {
+                final int root = uf.find(x);
+                assertEquals(suf.size(x), count[root]);
+                if (root != x) continue;
+                final int[] members = { 0 };
+                final boolean[] ok = { true };
+                suf.forEachMember(x, y -> {
+                    ok[0] &= !seen[y] && uf.find(y) == root;
+                    seen[y] = true;
+                    members[0]++;
+                });
+                assertTrue(ok[0]);
+                assertEquals(members[0], count[root]);
+            }
+        }
+        System.out.println("passed");
+    }
+
+    // 32 threads each make their share of size new sets, joining every
+    // new one to set 0 and to the one they made before; the ids handed out
+    // must be 1..size, and end up in one set
+    public void growing(final int size, final GrowableUnionFind uf) throws Exception {
+        System.out.printf("Testing %s ... ", uf.getClass());
+        final int first = uf.makeSet(), threadCount = 32;
+        final AtomicIntegerArray made = new AtomicIntegerArray(size+1);
+        final CyclicBarrier startBarrier = new CyclicBarrier(threadCount+1), 
+              stopBarrier = startBarrier;
+        for (int i = 0; i < threadCount; ++i) {
+            Thread ti = new Thread(new Runnable() { public void run() {
+                try { startBarrier.await(); } catch (Exception exn) { }
+                int prev = first;
+                for (int j = 0; j < size/threadCount; ++j) {
+                    final int x = uf.makeSet();
+                    made.incrementAndGet(x);
+                    if (j % 2 == 0) uf.union(first, x);
+                    uf.union(prev, x);
+                    prev = x;
+                }
+                try { stopBarrier.await(); } catch (Exception exn) { }
+            }});
+            ti.start();
+        }
+        startBarrier.await();
+        stopBarrier.await();
+        final int total = threadCount*(size/threadCount);
+        assertEquals(uf.componentCount(), 1);
+        for (int x = 1; x <= total; ++x) {
+            assertEquals(made.get(x), 1);
+            assertEquals(uf.find(x), uf.find(first));
+        }
+        System.out.println("passed");
+    }
+
+    // Random unions, a full checkpoint, and then a few more unions and an
+    // incremental one, which must write only a few blocks; after each, the
+    // file reopened must give the same sets
+    public void checkpoint(final int size, final Path file) throws Exception {
+        System.out.printf("Testing checkpoints of %s ... ", MappedUnionFind.class);
+        final Random rnd = new Random(2014);
+        final MappedUnionFind uf = MappedUnionFind.create(file, size);
+        for (int i = 0; i < size/2; ++i) 
+            uf.union(rnd.nextInt(size), rnd.nextInt(size));
+        uf.checkpoint(false);
+        assertSame(uf, MappedUnionFind.open(file), size);
+        uf.checkpoint(true); // the path halving done by assertSame's finds
+        for (int i = 0; i < 10; ++i) 
+            uf.union(rnd.nextInt(size), rnd.nextInt(size));
+        final int blocks = uf.checkpoint(true);
+        assertTrue(0 < blocks && blocks <= 1 + 10*4);
+        assertEquals(uf.checkpoint(true), 0);
+        assertSame(uf, MappedUnionFind.open(file), size);
+        System.out.printf("passed (%d blocks written incrementally)%n", blocks);
+    }
+
+    private static void assertSame(UnionFind a, UnionFind b, int size) throws Exception {
+        assertEquals(a.componentCount(), b.componentCount());
+        for (int x = 0; x < size; ++x) 
+            assertEquals(a.find(x), b.find(x));
+    }
+
+    // Random edges added through unionAll, in two halves, must give the
+    // same components as adding them one at a time to a FineUnionFind
+    public void components(final int size, final ConnectedComponents cc) throws Exception {
+        System.out.printf("Testing %s ... ", cc.getClass());
+        final Random rnd = new Random(2014);
+        final int[] src = new int[size], dst = new int[size];
+        final UnionFind uf = new FineUnionFind(size);
+        for (int i = 0; i < size; ++i) {
+            src[i] = rnd.nextInt(size);
+            dst[i] = rnd.nextInt(size);
+            uf.union(src[i], dst[i]);
+        }
+        cc.unionAll(Arrays.copyOf(src, size/2), Arrays.copyOf(dst, size/2));
+        cc.unionAll(Arrays.copyOfRange(src, size/2, size), Arrays.copyOfRange(dst, size/2, size));
+        final int[] ids = cc.components();
+        final int[] idOfRoot = new int[size];
+        Arrays.fill(idOfRoot, -1);
+        int count = 0;
+        for (int i = 0; i < size; ++i) {
+            final int r = uf.find(i);
+            if (idOfRoot[r] < 0) idOfRoot[r] = ids[i];
+            assertEquals(ids[i], idOfRoot[r]);
+            count = Math.max(count, ids[i]+1);
+        }
+        int roots = 0;
+        for (int r : idOfRoot) if (r >= 0) roots++;
+        assertEquals(count, roots);
+        System.out.println("passed");
+    }
+
+    // Builds one binomial tree of depth log2(size) by linking equal-rank
+    // roots, so union's endpoint compression shortens nothing, then times
+    // sameSet of random pairs from 32 threads
+    public void deepSameSet(final int size, final UnionFind uf) throws Exception {
+        System.out.printf("Timing sameSet on %s ... ", uf.getClass());
+        for (int k = 1; k < size; k *= 2)
+            for (int i = 0; i + k < size; i += 2*k)
+                uf.union(uf.find(i), uf.find(i + k));
+        final int threadCount = 32, queries = 200_000;
+        final CyclicBarrier startBarrier = new CyclicBarrier(threadCount+1), 
+              stopBarrier = startBarrier;
+        final AtomicBoolean same = new AtomicBoolean(true);
+        for (int i = 0; i < threadCount; ++i) {
+            final int seed = i;
+            Thread ti = new Thread(new Runnable() { public void run() {
+                Random rnd = new Random(seed);
+                try { startBarrier.await(); } catch (Exception exn) { }
+                for (int j = 0; j < queries; ++j) 
+                    if (!uf.sameSet(rnd.nextInt(size), rnd.nextInt(size))) same.set(false);
+                try { stopBarrier.await(); } catch (Exception exn) { }
+            }});
+            ti.start();
+        }
+        startBarrier.await();
+        long start = System.nanoTime();
+        stopBarrier.await();
+        double time = (System.nanoTime()-start)/1e9;
+        assertTrue(same.get());
+        System.out.printf("%.1f Mqueries/s%n", threadCount*(double)queries/time/1e6);
+    }
 }
 
 class Tests {
@@ -130,11 +371,18 @@ class Tests {
 // But the fields of Node objects are written (by union and compress
 // while holding locks), and read by find without holding locks, so
 // must be made volatile.
-class FineUnionFind implements UnionFind {
-    private final Node[] nodes;
+
+// Every root also keeps the size of its set, and the members of a set
+// form a circular list through succ, which union splices in O(1) by
+// swapping the two roots' successors. Both are only touched holding the
+// root's lock, so they need not be volatile.
+class FineUnionFind implements SizedUnionFind {
+    final Node[] nodes; // read by HalvingFineUnionFind.find
+    private final AtomicInteger components;
 
     public FineUnionFind(int count) {
         this.nodes = new Node[count];
+        this.components = new AtomicInteger(count);
         for (int x=0; x<count; x++)
             nodes[x] = new Node(x);
     }
@@ -166,6 +414,11 @@ class FineUnionFind implements UnionFind {
                     nodes[rx].next = ry;
                     if (nodes[rx].rank == nodes[ry].rank)
                         nodes[ry].rank++;
+                    nodes[ry].size += nodes[rx].size;
+                    int succ = nodes[rx].succ;
+                    nodes[rx].succ = nodes[ry].succ;
+                    nodes[ry].succ = succ;
+                    components.decrementAndGet();
                     compress(x, ry);
                     compress(y, ry);
                 } }  
@@ -185,11 +438,46 @@ class FineUnionFind implements UnionFind {
         return find(x) == find(y);
     }
 
+    public int componentCount() {
+        return components.get();
+    }
+
+    public int size(int x) {
+        while (true) {
+            int root = find(x);
+            synchronized (nodes[root]) {
+                if (nodes[root].next == root)
+                    return nodes[root].size;
+            }
+        }
+    }
+
+    // Runs action holding the root's lock, so the set cannot grow
+    // meanwhile; action must not call union
+    public void forEachMember(int x, IntConsumer action) {
+        while (true) {
+            int root = find(x);
+            synchronized (nodes[root]) {
+                if (nodes[root].next != root)
+                    continue;
+                int y = root;
+                do {
+                    action.accept(y);
+                    y = nodes[y].succ;
+                } while (y != root);
+                return;
+            }
+        }
+    }
+
     class Node {
-        private volatile int next, rank;
+        volatile int next, rank;
+        // Guarded by the lock of the root of the node's set
+        private int size = 1, succ;
 
         public Node(int next) {
             this.next = next;
+            this.succ = next;
         }
     }
 }
@@ -204,11 +492,13 @@ class FineUnionFind implements UnionFind {
 // while holding locks), and read by find without holding locks, so
 // must be made volatile.
 
-class BogusFineUnionFind implements UnionFind {
+class BogusFineUnionFind implements SizedUnionFind {
     private final Node[] nodes;
+    private final AtomicInteger components;
 
     public BogusFineUnionFind(int count) {
         this.nodes = new Node[count];
+        this.components = new AtomicInteger(count);
         for (int x=0; x<count; x++)
             nodes[x] = new Node(x);
     }
@@ -236,6 +526,11 @@ class BogusFineUnionFind implements UnionFind {
                     nodes[rx].next = ry;
                     if (nodes[rx].rank == nodes[ry].rank)
                         nodes[ry].rank++;
+                    nodes[ry].size += nodes[rx].size;
+                    int succ = nodes[rx].succ;
+                    nodes[rx].succ = nodes[ry].succ;
+                    nodes[ry].succ = succ;
+                    components.decrementAndGet();
                     compress(x, ry);
                     compress(y, ry);
                 }
@@ -256,10 +551,559 @@ class BogusFineUnionFind implements UnionFind {
         return find(x) == find(y);
     }
 
+    public int componentCount() {
+        return components.get();
+    }
+
+    public int size(int x) {
+        while (true) {
+            int root = find(x);
+            synchronized (nodes[root]) {
+                if (nodes[root].next == root)
+                    return nodes[root].size;
+            }
+        }
+    }
+
+    // Runs action holding the root's lock, so the set cannot grow
+    // meanwhile; action must not call union
+    public void forEachMember(int x, IntConsumer action) {
+        while (true) {
+            int root = find(x);
+            synchronized (nodes[root]) {
+                if (nodes[root].next != root)
+                    continue;
+                int y = root;
+                do {
+                    action.accept(y);
+                    y = nodes[y].succ;
+                } while (y != root);
+                return;
+            }
+        }
+    }
+
     class Node {
         private volatile int next, rank;
+        // Guarded by the lock of the root of the node's set
+        private int size = 1, succ;
         public Node(int next) {
             this.next = next;
+            this.succ = next;
+        }
+    }
+}
+
+// Lock-free union-find after Anderson and Woll. Subclasses store one int
+// entry per element and provide get and cas on it: an entry >= 0 is the
+// element's parent, and an entry < 0 marks a root of rank -1-entry, so a
+// single CAS on a root's entry both checks that it is still a root and that
+// its rank is the one the union decided on.
+
+// Union links the root of smaller (rank, index) below the other. Ranks
+// only grow while an element is a root, and a link succeeds only if the
+// linked root's entry is unchanged since it was read, so two unions can
+// never link two roots below each other. The rank of the new root is then
+// bumped by a CAS that may fail harmlessly; ranks only guide balance.
+
+// Find takes no locks and never retries: path halving points each visited
+// element at its grandparent with a CAS, which fails only if someone
+// already moved it higher, and either way the walk moves on.
+abstract class LockFreeUnionFind implements UnionFind {
+    // x's entry, read volatile
+    abstract int get(int x);
+
+    // Sets x's entry to update if it is expect
+    abstract boolean cas(int x, int expect, int update);
+
+    // Called once for every link, so once for every two sets made one
+    abstract void linked();
+
+    // The read and the halving CAS of find, which only needs to see the
+    // parent chains in the order they were written; by default get and cas
+    int getAcquire(int x) {
+        return get(x);
+    }
+
+    void halve(int x, int expect, int update) {
+        cas(x, expect, update);
+    }
+
+    public int find(int x) {
+        while (true) {
+            int p = getAcquire(x);
+            if (p < 0) return x;
+            int g = getAcquire(p);
+            if (g < 0) return p;
+            halve(x, p, g);
+            x = g;
+        }
+    }
+
+    public void union(final int x, final int y) {
+        while (true) {
+            int rx = find(x), ry = find(y);
+            if (rx == ry)
+                return;
+            int wx = get(rx), wy = get(ry);
+            if (wx >= 0 || wy >= 0)
+                continue; // no longer roots
+            // Lower rank is a higher entry; order by (rank, index)
+            if (wx < wy || (wx == wy && rx > ry)) {
+                int tmp = rx; rx = ry; ry = tmp;
+                tmp = wx; wx = wy; wy = tmp;
+            }
+            // Now (rank of rx, rx) < (rank of ry, ry)
+            if (cas(rx, wx, ry)) {
+                if (wx == wy)
+                    cas(ry, wy, wy-1);
+                linked();
+                return;
+            }
+        }
+    }
+
+    // Linearizable: if the roots differ and rx is still a root afterwards,
+    // x and y were in different sets when rx was found
+    public boolean sameSet(int x, int y) {
+        while (true) {
+            int rx = find(x), ry = find(y);
+            if (rx == ry)
+                return true;
+            if (get(rx) < 0)
+                return false;
+        }
+    }
+}
+
+// LockFreeUnionFind on one AtomicIntegerArray
+class CasUnionFind extends LockFreeUnionFind {
+    private final AtomicIntegerArray parent;
+    private final AtomicInteger components;
+
+    public CasUnionFind(int count) {
+        this.components = new AtomicInteger(count);
+        this.parent = new AtomicIntegerArray(count);
+        for (int x=0; x<count; x++)
+            parent.set(x, -1);
+    }
+
+    int get(int x) {
+        return parent.get(x);
+    }
+
+    boolean cas(int x, int expect, int update) {
+        return parent.compareAndSet(x, expect, update);
+    }
+
+    void linked() {
+        components.decrementAndGet();
+    }
+
+    public int componentCount() {
+        return components.get();
+    }
+}
+
+// LockFreeUnionFind on a plain int[] through a VarHandle, for forests of
+// hundreds of millions of elements. It costs 4 bytes per element, 2 GB for
+// 500M, against about 36 for FineUnionFind (a 32 byte Node, with its size
+// and succ, plus a 4 byte reference), and the forest is a single object for
+// the collector. A rank array beside it would add a byte per element and a
+// second write that cannot be made atomic with the link, so as in
+// CasUnionFind a root keeps its rank in its own entry, -1-rank.
+
+// Java arrays stop just short of 2^31 elements, which the int indices of
+// UnionFind do too, so one array covers every universe this interface can
+// name. Since find only needs to see the parent chains in the order they
+// were written, it reads with acquire, and path halving uses a release
+// weak CAS whose spurious failures are as harmless as real ones.
+class CompactUnionFind extends LockFreeUnionFind {
+    private static final VarHandle PARENT = MethodHandles.arrayElementVarHandle(int[].class);
+    private final int[] parent;
+    private final AtomicInteger components;
+
+    public CompactUnionFind(int count) {
+        this.components = new AtomicInteger(count);
+        this.parent = new int[count];
+        Arrays.fill(parent, -1);
+    }
+
+    int get(int x) {
+        return (int)PARENT.getVolatile(parent, x);
+    }
+
+    boolean cas(int x, int expect, int update) {
+        return PARENT.compareAndSet(parent, x, expect, update);
+    }
+
+    int getAcquire(int x) {
+        return (int)PARENT.getAcquire(parent, x);
+    }
+
+    void halve(int x, int expect, int update) {
+        PARENT.weakCompareAndSetRelease(parent, x, expect, update);
+    }
+
+    void linked() {
+        components.decrementAndGet();
+    }
+
+    public int componentCount() {
+        return components.get();
+    }
+}
+
+// FineUnionFind whose find halves the path it walks, pointing each node it
+// passes at its grandparent. This is a benign race needing no lock or CAS:
+// once a node has an ancestor it keeps it, so whatever grandparent a
+// stale find writes is still an ancestor, even over a newer, shorter link
+// written by compress or by another find. Only non-roots are written, so
+// union's check that its two roots are still roots is unaffected.
+class HalvingFineUnionFind extends FineUnionFind {
+    public HalvingFineUnionFind(int count) {
+        super(count);
+    }
+
+    public int find(int x) {
+        while (true) {
+            int p = nodes[x].next;
+            if (p == x) return x;
+            int g = nodes[p].next;
+            if (g == p) return p;
+            nodes[x].next = g;
+            x = g;
+        }
+    }
+}
+
+// LockFreeUnionFind whose elements are made one at a time by makeSet, for
+// when the universe is not known up front. The forest lives in segments of
+// SEGMENT entries, allocated only when makeSet first hands out an id in
+// them: the thread that does fills the segment with roots before a CAS
+// publishes it in a directory fixed at 2^31/SEGMENT entries, so find and
+// union never wait for growth and only read the directory, and a loser of
+// that CAS just drops its copy. Ids come from one counter, and no id is
+// returned before its segment is in place.
+class GrowableUnionFind extends LockFreeUnionFind {
+    private static final int SHIFT = 16, SEGMENT = 1 << SHIFT;
+    private final AtomicReferenceArray<AtomicIntegerArray> segments =
+        new AtomicReferenceArray<>(1 << (31-SHIFT));
+    private final AtomicInteger next = new AtomicInteger(), components = new AtomicInteger();
+
+    public GrowableUnionFind() { }
+
+    // Starts with elements 0..count-1 made
+    public GrowableUnionFind(int count) {
+        for (int x=0; x<count; x++)
+            makeSet();
+    }
+
+    // A new element in a set of its own
+    public int makeSet() {
+        final int x = next.getAndIncrement();
+        if (x < 0) {
+            next.decrementAndGet();
+            throw new IllegalStateException("no more ids");
+        }
+        if (segments.get(x >>> SHIFT) == null) {
+            final AtomicIntegerArray segment = new AtomicIntegerArray(SEGMENT);
+            for (int i=0; i<SEGMENT; i++)
+                segment.set(i, -1);
+            segments.compareAndSet(x >>> SHIFT, null, segment);
+        }
+        components.incrementAndGet();
+        return x;
+    }
+
+    private AtomicIntegerArray segment(int x) {
+        final AtomicIntegerArray segment = segments.get(x >>> SHIFT);
+        if (segment == null) 
+            throw new IllegalArgumentException("element " + x + " not made");
+        return segment;
+    }
+
+    int get(int x) {
+        return segment(x).get(x & (SEGMENT-1));
+    }
+
+    boolean cas(int x, int expect, int update) {
+        return segment(x).compareAndSet(x & (SEGMENT-1), expect, update);
+    }
+
+    void linked() {
+        components.decrementAndGet();
+    }
+
+    // Every public method starts here, so this is the one check that x
+    // was made; the parents find walks to were all made before it.
+    public int find(int x) {
+        if (x < 0 || x >= next.get())
+            throw new IllegalArgumentException("element " + x + " not made");
+        return super.find(x);
+    }
+
+    public int componentCount() {
+        return components.get();
+    }
+}
+
+// CompactUnionFind whose forest is a memory-mapped file, so that it
+// survives the process: open maps the file and find works at once, with no
+// parse step and only the pages touched read in. The file is a 16 byte
+// header (magic, element count, component count) and then one int per
+// element in native byte order, -1-rank for a root and the parent for the
+// rest, at most about 536M elements, as a single mapping stops at 2 GB.
+// Entries are read and CASed in place through a byte buffer VarHandle.
+
+// The mapping is shared, so every union is in the page cache at once, and
+// checkpoint forces it to disk. Writes mark their 4 KB block dirty, and an
+// incremental checkpoint forces only the blocks marked since the last one.
+// A crash between checkpoints leaves each entry as it was at some moment
+// since, and since links only ever point a node higher, any such mix is
+// still a forest, just missing some unions; the component count in the
+// header is only exact when the last checkpoint ran with no union running.
+class MappedUnionFind extends LockFreeUnionFind {
+    private static final int MAGIC = 0x55464631, HEADER = 16, COMPONENTS = 8, BLOCK = 4096;
+    private static final VarHandle INT =
+        MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private final MappedByteBuffer map;
+    private final int count;
+    private final AtomicLongArray dirty; // one bit per block
+
+    private MappedUnionFind(MappedByteBuffer map) {
+        this.map = map;
+        this.count = (int)INT.get(map, 4);
+        this.dirty = new AtomicLongArray((blocks()+63)/64);
+    }
+
+    // A new file of count singleton sets
+    public static MappedUnionFind create(Path file, int count) throws IOException {
+        if (count < 0 || count > (Integer.MAX_VALUE-HEADER)/4)
+            throw new IllegalArgumentException("cannot map " + count + " elements");
+        final MappedByteBuffer map = map(file, HEADER+4L*count, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        INT.set(map, 0, MAGIC);
+        INT.set(map, 4, count);
+        INT.set(map, COMPONENTS, count);
+        for (int x=0; x<count; x++)
+            INT.set(map, HEADER+4*x, -1);
+        map.force();
+        return new MappedUnionFind(map);
+    }
+
+    // The union-find in file. As the mapping is shared, that is every union
+    // done before the process that last wrote it exited or crashed, not just
+    // those up to its last checkpoint, unless the machine went down too.
+    public static MappedUnionFind open(Path file) throws IOException {
+        final long size = Files.size(file);
+        if (size < HEADER || size > Integer.MAX_VALUE)
+            throw new IOException(file + " is not a union-find checkpoint");
+        final MappedByteBuffer map = map(file, size, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if ((int)INT.get(map, 0) != MAGIC)
+            throw new IOException(file + " is not a union-find checkpoint in this byte order");
+        if (HEADER+4L*(int)INT.get(map, 4) != size)
+            throw new IOException(file + " is truncated");
+        return new MappedUnionFind(map);
+    }
+
+    private static MappedByteBuffer map(Path file, long size, OpenOption... options) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, options)) {
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    // Forces the entries written since the last checkpoint to disk, or with
+    // incremental false the whole file, and returns how many blocks that
+    // was. Blocks written while it runs are left marked for the next one.
+    public int checkpoint(boolean incremental) {
+        if (!incremental) {
+            for (int w=0; w<dirty.length(); w++)
+                dirty.set(w, 0);
+            map.force();
+            return blocks();
+        }
+        int forced = 0, runStart = -1, runEnd = -1;
+        for (int w=0; w<dirty.length(); w++) {
+            for (long bits = dirty.getAndSet(w, 0); bits != 0; bits &= bits-1) {
+                final int b = 64*w + Long.numberOfTrailingZeros(bits);
+                if (b != runEnd) {
+                    force(runStart, runEnd);
+                    runStart = b;
+                }
+                runEnd = b+1;
+                forced++;
+            }
+        }
+        force(runStart, runEnd);
+        return forced;
+    }
+
+    // Forces blocks [from,to) if from >= 0
+    private void force(int from, int to) {
+        if (from < 0) return;
+        final int offset = from*BLOCK;
+        map.force(offset, Math.min(to*BLOCK, map.capacity())-offset);
+    }
+
+    private int blocks() {
+        return (map.capacity()+BLOCK-1)/BLOCK;
+    }
+
+    private void written(int offset) {
+        final int b = offset/BLOCK, w = b >>> 6;
+        final long bit = 1L << (b & 63);
+        if ((dirty.get(w) & bit) == 0)
+            dirty.getAndAccumulate(w, bit, (old, mark) -> old | mark);
+    }
+
+    int get(int x) {
+        return (int)INT.getVolatile(map, HEADER+4*Objects.checkIndex(x, count));
+    }
+
+    int getAcquire(int x) {
+        return (int)INT.getAcquire(map, HEADER+4*Objects.checkIndex(x, count));
+    }
+
+    boolean cas(int x, int expect, int update) {
+        final int offset = HEADER+4*Objects.checkIndex(x, count);
+        if (!INT.compareAndSet(map, offset, expect, update)) return false;
+        written(offset);
+        return true;
+    }
+
+    void linked() {
+        INT.getAndAdd(map, COMPONENTS, -1);
+        written(COMPONENTS);
+    }
+
+    public int componentCount() {
+        return (int)INT.getVolatile(map, COMPONENTS);
+    }
+}
+
+// Connected components of large edge lists on a ForkJoinPool. unionAll
+// splits the edges into 4 leaves per worker and joins each leaf's edges in
+// a CompactUnionFind, first finding both roots without locks or CAS and
+// skipping the edge if they agree, which on a graph with more edges than
+// vertices soon is most of them. Edges whose roots differ go to union with
+// the roots as arguments, so its own finds are one step.
+
+// components() then finds every element's root in parallel, numbers the
+// roots densely in index order by a prefix sum of per-leaf root counts,
+// and maps every element to its root's number.
+class ConnectedComponents {
+    private static final int MIN_LEAF = 4_096;
+    private final ForkJoinPool pool;
+    private final int count, leaves;
+    private final CompactUnionFind uf;
+
+    public ConnectedComponents(int count, ForkJoinPool pool) {
+        this.pool = pool;
+        this.count = count;
+        this.leaves = 4*pool.getParallelism();
+        this.uf = new CompactUnionFind(count);
+    }
+
+    // Joins src[i] and dst[i] for every i
+    public void unionAll(final int[] src, final int[] dst) {
+        if (src.length != dst.length)
+            throw new IllegalArgumentException("src and dst differ in length");
+        final int n = src.length, leafCount = Math.max(1, Math.min(leaves, n/MIN_LEAF));
+        pool.invoke(new Leaves(0, leafCount, i -> {
+            for (int e = from(i, n, leafCount); e < from(i+1, n, leafCount); e++) {
+                final int rs = uf.find(src[e]), rd = uf.find(dst[e]);
+                if (rs != rd) uf.union(rs, rd);
+            }
+        }));
+    }
+
+    public boolean sameSet(int x, int y) { return uf.sameSet(x, y); }
+
+    // ids[x] in [0, number of components), equal for x in the same
+    // component; components are numbered in order of their root's index.
+    // Assumes no unionAll is running.
+    public int[] components() {
+        final int leafCount = Math.max(1, Math.min(leaves, count/MIN_LEAF));
+        final int[] ids = new int[count], idOfRoot = new int[count], offsets = new int[leafCount];
+        pool.invoke(new Leaves(0, leafCount, i -> {
+            int roots = 0;
+            for (int x = from(i, count, leafCount); x < from(i+1, count, leafCount); x++) {
+                ids[x] = uf.find(x);
+                if (ids[x] == x) roots++;
+            }
+            offsets[i] = roots;
+        }));
+        for (int i = 0, sum = 0; i < leafCount; i++) {
+            final int roots = offsets[i];
+            offsets[i] = sum;
+            sum += roots;
+        }
+        pool.invoke(new Leaves(0, leafCount, i -> {
+            int id = offsets[i];
+            for (int x = from(i, count, leafCount); x < from(i+1, count, leafCount); x++)
+                if (ids[x] == x) idOfRoot[x] = id++;
+        }));
+        pool.invoke(new Leaves(0, leafCount, i -> {
+            for (int x = from(i, count, leafCount); x < from(i+1, count, leafCount); x++)
+                ids[x] = idOfRoot[ids[x]];
+        }));
+        return ids;
+    }
+
+    // First index of leaf i out of leafCount over [0,n)
+    static int from(int i, int n, int leafCount) {
+        return (int)((long)i*n/leafCount);
+    }
+
+    // Runs leaf.accept(i) for every i in [from,to), halving the range
+    // until a single leaf is left. Never serialized.
+    @SuppressWarnings("serial")
+    static class Leaves extends RecursiveAction {
+        private final int from, to;
+        private final IntConsumer leaf;
+
+        Leaves(int from, int to, IntConsumer leaf) {
+            this.from = from;
+            this.to = to;
+            this.leaf = leaf;
+        }
+
+        protected void compute() {
+            if (to-from == 1) {
+                leaf.accept(from);
+                return;
+            }
+            final int mid = (from+to) >>> 1;
+            invokeAll(new Leaves(from, mid, leaf), new Leaves(mid, to, leaf));
+        }
+    }
+
+    // Edges/sec of unionAll followed by components() on a random graph of
+    // n vertices and m edges, on pools of 1, 2, 4, ... up to all cores
+    public static void scaling(int n, int m) {
+        final Random rnd = new Random(2014);
+        final int[] src = new int[m], dst = new int[m];
+        for (int e = 0; e < m; e++) {
+            src[e] = rnd.nextInt(n);
+            dst[e] = rnd.nextInt(n);
+        }
+        final int cores = Runtime.getRuntime().availableProcessors();
+        for (int p = 1; ; p = Math.min(2*p, cores)) {
+            final ForkJoinPool pool = new ForkJoinPool(p);
+            double best = Double.MAX_VALUE;
+            int components = 0;
+            for (int run = 0; run < 3; run++) {
+                final long start = System.nanoTime();
+                final ConnectedComponents cc = new ConnectedComponents(n, pool);
+                cc.unionAll(src, dst);
+                final int[] ids = cc.components();
+                best = Math.min(best, (System.nanoTime()-start)/1e9);
+                components = ids.length == 0 ? 0 : Arrays.stream(ids).max().getAsInt()+1;
+            }
+            pool.shutdown();
+            System.out.printf("%2d cores %8.1f Medges/s (%d components)%n", p, m/best/1e6, components);
+            if (p == cores) break;
         }
     }
 }